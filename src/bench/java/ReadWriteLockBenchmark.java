@@ -0,0 +1,307 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Class whose sole responsibility is to measure how many reads and writes per second a read/write lock can guard,
+ * at increasing thread counts and decreasing shares of reads. Each read and write is tiny (a pair of counters that
+ * writers bump together), so the lock's own cost is what's measured. These locks are compared:
+ * <ul>
+ * <li>simple: {@link SimpleReadWriteLock}, with its read lock</li>
+ * <li>biased: a read-biased {@link SimpleReadWriteLock}, with its read lock</li>
+ * <li>optimistic: {@link SimpleReadWriteLock#optimisticSupplier(java.util.function.Supplier)}</li>
+ * <li>reentrant: {@link ReentrantReadWriteLock}</li>
+ * <li>stamped: {@link StampedLock}, with its read lock</li>
+ * <li>stamped opt: {@link StampedLock}, with optimistic reads that fall back to its read lock</li>
+ * </ul>
+ * Every read checks that it saw both counters from the same write, so a lock that lets a read overlap a write fails
+ * the benchmark.
+ * <p>
+ * Built only with the bench profile (mvn -Pbench compile), so it doesn't ship with the search engine.
+ * <p>
+ * Usage: java ReadWriteLockBenchmark [operations per run] [thread counts, e.g. 1,2,4,8] [read percentages, e.g. 100,99,90]
+ * @author JRRed
+ *
+ */
+public class ReadWriteLockBenchmark {
+	/** Default number of operations per run */
+	public static final int DEFAULT_OPERATIONS = 2_000_000;
+
+	/** Default thread counts */
+	public static final String DEFAULT_THREADS = "1,2,4,8";
+
+	/** Default read percentages */
+	public static final String DEFAULT_READS = "100,99,90";
+
+	/** Number of runs of each lock per setting; the best one is reported */
+	private static final int RUNS = 3;
+
+	/** Names of the locks, in the order they're measured */
+	private static final String[] LOCKS = { "simple", "biased", "optimistic", "reentrant", "stamped", "stamped opt" };
+
+	/**
+	 * Runs the benchmark
+	 * @param args operations per run, then thread counts, then read percentages
+	 */
+	public static void main(String[] args) {
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPERATIONS;
+		String[] threadCounts = (args.length > 1 ? args[1] : DEFAULT_THREADS).split(",");
+		String[] readPercents = (args.length > 2 ? args[2] : DEFAULT_READS).split(",");
+
+		System.out.printf("%d operations per run, best of %d runs, %d CPUs, in millions of operations/s%n", operations,
+				RUNS, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %6s", "threads", "reads");
+		for (String name : LOCKS) {
+			System.out.printf(" %12s", name);
+		}
+		System.out.println();
+
+		for (String count : threadCounts) {
+			int threads = Integer.parseInt( count.strip() );
+
+			for (String percent : readPercents) {
+				int reads = Integer.parseInt( percent.strip() );
+				System.out.printf("%8d %5d%%", threads, reads);
+
+				for (int i = 0; i < LOCKS.length; i++) {
+					double best = 0;
+					for (int run = 0; run < RUNS; run++) {
+						best = Math.max( best, measure(newGuard(i), threads, reads, operations) );
+					}
+					System.out.printf(" %12.2f", best / 1e6);
+				}
+				System.out.println();
+			}
+		}
+	}
+
+	/**
+	 * Creates a guard for one of the locks
+	 * @param lock index of the lock in {@link #LOCKS}
+	 * @return A guard for that lock
+	 */
+	private static Guard newGuard(int lock) {
+		switch (lock) {
+			case 0:
+				return new SimpleGuard(new SimpleReadWriteLock(), false);
+			case 1:
+				return new SimpleGuard(new SimpleReadWriteLock(true), false);
+			case 2:
+				return new SimpleGuard(new SimpleReadWriteLock(), true);
+			case 3:
+				return new ReentrantGuard();
+			case 4:
+				return new StampedGuard(false);
+			default:
+				return new StampedGuard(true);
+		}
+	}
+
+	/**
+	 * Runs a mix of reads and writes on several threads at once
+	 * @param guard guard
+	 * @param threads number of threads
+	 * @param reads percentage of operations that are reads
+	 * @param operations total number of operations
+	 * @return Operations per second
+	 */
+	private static double measure(Guard guard, int threads, int reads, int operations) {
+		Thread[] workers = new Thread[threads];
+		int each = operations / threads;
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread( () -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int j = 0; j < each; j++) {
+					if (random.nextInt(100) < reads) {
+						guard.read();
+					}
+					else {
+						guard.write();
+					}
+				}
+			} );
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return (double) each * threads / ( (System.nanoTime() - start) / 1e9 );
+	}
+
+	/**
+	 * Class whose sole responsibility is to guard a pair of counters that are always written together, so a read
+	 * can tell whether it overlapped a write
+	 * @author JRRed
+	 *
+	 */
+	private abstract static class Guard {
+		/** first counter */
+		protected long first;
+
+		/** second counter; always equal to first, outside of a write */
+		protected long second;
+
+		/**
+		 * Reads both counters under the lock
+		 */
+		public abstract void read();
+
+		/**
+		 * Bumps both counters under the lock
+		 */
+		public abstract void write();
+
+		/**
+		 * Bumps both counters. Must be called under the write lock.
+		 */
+		protected void bump() {
+			first++;
+			second++;
+		}
+
+		/**
+		 * Returns the difference between the counters. Must be called under a read lock (or validated).
+		 * @return The difference between the counters
+		 */
+		protected long difference() {
+			return first - second;
+		}
+
+		/**
+		 * Makes sure a read saw both counters from the same write
+		 * @param difference difference between the counters, as read
+		 */
+		protected static void check(long difference) {
+			if (difference != 0) {
+				throw new IllegalStateException("A read overlapped a write");
+			}
+		}
+	}
+
+	/**
+	 * Guard that uses a {@link SimpleReadWriteLock}
+	 * @author JRRed
+	 *
+	 */
+	private static class SimpleGuard extends Guard {
+		/** lock */
+		private final SimpleReadWriteLock lock;
+
+		/** whether reads are optimistic */
+		private final boolean optimistic;
+
+		/**
+		 * Constructor
+		 * @param lock lock
+		 * @param optimistic whether reads are optimistic
+		 */
+		private SimpleGuard(SimpleReadWriteLock lock, boolean optimistic) {
+			this.lock = lock;
+			this.optimistic = optimistic;
+		}
+
+		@Override
+		public void read() {
+			check( optimistic ? lock.optimisticSupplier(this::difference) : lock.syncSupplier(this::difference, false) );
+		}
+
+		@Override
+		public void write() {
+			lock.syncRunnable(this::bump, true);
+		}
+	}
+
+	/**
+	 * Guard that uses a {@link ReentrantReadWriteLock}
+	 * @author JRRed
+	 *
+	 */
+	private static class ReentrantGuard extends Guard {
+		/** lock */
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		@Override
+		public void read() {
+			lock.readLock().lock();
+			try {
+				check( difference() );
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void write() {
+			lock.writeLock().lock();
+			try {
+				bump();
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Guard that uses a {@link StampedLock}
+	 * @author JRRed
+	 *
+	 */
+	private static class StampedGuard extends Guard {
+		/** lock */
+		private final StampedLock lock = new StampedLock();
+
+		/** whether reads are optimistic */
+		private final boolean optimistic;
+
+		/**
+		 * Constructor
+		 * @param optimistic whether reads are optimistic
+		 */
+		private StampedGuard(boolean optimistic) {
+			this.optimistic = optimistic;
+		}
+
+		@Override
+		public void read() {
+			if (optimistic) {
+				long stamp = lock.tryOptimisticRead();
+				long difference = difference();
+				if ( lock.validate(stamp) ) {
+					check(difference);
+					return;
+				}
+			}
+
+			long stamp = lock.readLock();
+			try {
+				check( difference() );
+			}
+			finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		@Override
+		public void write() {
+			long stamp = lock.writeLock();
+			try {
+				bump();
+			}
+			finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class whose sole responsibility is to measure how many tiny tasks per second a {@link WorkQueue} can run, at
+ * increasing thread counts. Two kinds of load are measured:
+ * <ul>
+ * <li>submit: one outside thread submits every task, like the search collectors submit one task per query line</li>
+ * <li>fan-out: outside tasks each submit more tasks from a worker, like the directory walk and chunked parsing do</li>
+ * </ul>
+ * Each is measured with the queue's metrics turned off and on, to show what keeping them costs.
+ * <p>
+ * Built only with the bench profile (mvn -Pbench compile), so it doesn't ship with the search engine.
+ * <p>
+ * Usage: java WorkQueueBenchmark [tasks per run] [thread counts, e.g. 1,2,4,8,16]
+ * @author JRRed
+ *
+ */
+public class WorkQueueBenchmark {
+	/** Default number of tasks per run */
+	public static final int DEFAULT_TASKS = 1_000_000;
+
+	/** Default thread counts */
+	public static final String DEFAULT_THREADS = "1,2,4,8,16";
+
+	/** Number of tasks each fan-out task submits */
+	private static final int FAN_OUT = 100;
+
+	/** Number of runs of each kind per thread count; the best one is reported */
+	private static final int RUNS = 5;
+
+	/**
+	 * Runs the benchmark
+	 * @param args tasks per run, then thread counts
+	 */
+	public static void main(String[] args) {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TASKS;
+		String[] threadCounts = (args.length > 1 ? args[1] : DEFAULT_THREADS).split(",");
+
+		System.out.printf("%d tiny tasks per run, best of %d runs, %d CPUs%n", tasks, RUNS,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %18s %18s %18s %18s%n", "threads", "submit (tasks/s)", "fan-out (tasks/s)",
+				"submit + metrics", "fan-out + metrics");
+
+		for (String count : threadCounts) {
+			int threads = Integer.parseInt( count.strip() );
+			double[] plain = measure(new WorkQueue(threads, false), tasks);
+			double[] withMetrics = measure(new WorkQueue(threads, true), tasks);
+
+			System.out.printf("%8d %18.0f %18.0f %18.0f %18.0f%n", threads, plain[0], plain[1], withMetrics[0],
+					withMetrics[1]);
+		}
+	}
+
+	/**
+	 * Measures both kinds of load on a queue, then shuts it down
+	 * @param queue work queue
+	 * @param tasks number of tasks per run
+	 * @return The best tasks per second of the submit load, then of the fan-out load
+	 */
+	private static double[] measure(WorkQueue queue, int tasks) {
+		double submit = 0;
+		double fanOut = 0;
+		for (int run = 0; run < RUNS; run++) {
+			submit = Math.max( submit, submit(queue, tasks) );
+			fanOut = Math.max( fanOut, fanOut(queue, tasks) );
+		}
+		queue.join();
+		return new double[] { submit, fanOut };
+	}
+
+	/**
+	 * Submits every task from this thread, and waits for them to finish
+	 * @param queue work queue
+	 * @param tasks number of tasks
+	 * @return Tasks run per second
+	 */
+	private static double submit(WorkQueue queue, int tasks) {
+		LongAdder done = new LongAdder();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < tasks; i++) {
+			queue.execute(done::increment);
+		}
+		queue.finish();
+
+		return check(done, tasks) / ( (System.nanoTime() - start) / 1e9 );
+	}
+
+	/**
+	 * Submits one task per {@link #FAN_OUT} tasks from this thread, each of which submits the rest from its worker,
+	 * and waits for them all to finish
+	 * @param queue work queue
+	 * @param tasks number of tasks (rounded down to a multiple of FAN_OUT)
+	 * @return Tasks run per second
+	 */
+	private static double fanOut(WorkQueue queue, int tasks) {
+		LongAdder done = new LongAdder();
+		int parents = tasks / FAN_OUT;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < parents; i++) {
+			queue.execute( () -> {
+				done.increment();
+				for (int j = 1; j < FAN_OUT; j++) {
+					queue.execute(done::increment);
+				}
+			} );
+		}
+		queue.finish();
+
+		return check(done, parents * FAN_OUT) / ( (System.nanoTime() - start) / 1e9 );
+	}
+
+	/**
+	 * Makes sure every task ran
+	 * @param done number of tasks that ran
+	 * @param expected number of tasks submitted
+	 * @return The number of tasks that ran
+	 */
+	private static long check(LongAdder done, long expected) {
+		if (done.sum() != expected) {
+			throw new IllegalStateException("Expected " + expected + " tasks to run, but " + done.sum() + " did");
+		}
+		return expected;
+	}
+}
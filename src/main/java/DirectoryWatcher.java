@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Class whose sole responsibility is to watch a directory (and every directory under it) for text files that are
+ * created, modified or deleted, and to hand the changed files to a listener in batches. A batch is handed over once
+ * the refresh interval has passed since its first change, so many quick changes (e.g. a file being copied in) are
+ * handled together.
+ * <p>
+ * The watcher runs on its own thread, which calls the listener. Directories that are created (or moved in) are
+ * watched too, and every text file already in them counts as changed. When a directory is deleted (or moved out),
+ * every text file that was in it counts as changed. If events are lost, the whole tree is scanned again.
+ * @author JRRed
+ *
+ */
+public class DirectoryWatcher {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
+
+	/** root directory */
+	private final Path root;
+
+	/** time to wait after a batch's first change before handing it to the listener */
+	private final Duration refresh;
+
+	/** listener that is given each batch of changed files. Files that no longer exist were deleted. */
+	private final Consumer<Set<Path>> listener;
+
+	/** watch service every directory is registered with */
+	private final WatchService service;
+
+	/** directory of each watch key */
+	private final Map<WatchKey, Path> directories;
+
+	/** text files currently under root, as far as this watcher knows */
+	private final Set<Path> files;
+
+	/** thread the watcher runs on */
+	private final Thread thread;
+
+	/**
+	 * Constructor. Starts watching right away, but only hands changes to the listener once {@link #start()} is called.
+	 * @param root root directory
+	 * @param refresh time to wait after a batch's first change before handing it to the listener
+	 * @param listener listener that is given each batch of changed files
+	 * @throws IOException if root can't be watched
+	 */
+	public DirectoryWatcher(Path root, Duration refresh, Consumer<Set<Path>> listener) throws IOException {
+		this.root = root;
+		this.refresh = refresh;
+		this.listener = listener;
+		this.service = root.getFileSystem().newWatchService();
+		this.directories = new HashMap<>();
+		this.files = new HashSet<>();
+		this.thread = new Thread(this::run, "DirectoryWatcher");
+
+		register(root, new HashSet<>());
+	}
+
+	/**
+	 * Starts handing changes to the listener
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops watching. A batch that's being handled is finished first.
+	 */
+	public void stop() {
+		thread.interrupt();
+		try {
+			service.close();
+		}
+		catch (IOException e) {
+			log.catching(Level.DEBUG, e);
+		}
+	}
+
+	/**
+	 * Waits for the watcher to stop
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 * Waits for changes and hands them to the listener, until stopped
+	 */
+	private void run() {
+		Set<Path> changed = new HashSet<>();
+		long deadline = 0;
+
+		try {
+			while ( !Thread.currentThread().isInterrupted() ) {
+				WatchKey key = changed.isEmpty()
+						? service.take()
+						: service.poll( Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS );
+
+				if (key != null) {
+					if ( changed.isEmpty() ) deadline = System.nanoTime() + refresh.toNanos();
+					handle(key, changed);
+				}
+
+				if ( !changed.isEmpty() && System.nanoTime() - deadline >= 0 ) {
+					log.debug("Handing {} changed files to the listener", changed.size());
+					listener.accept(changed);
+					changed = new HashSet<>();
+				}
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e) {
+			log.debug("Directory watcher stopped");
+		}
+	}
+
+	/**
+	 * Adds the files changed by a watch key's events to a batch
+	 * @param key watch key
+	 * @param changed batch of changed files
+	 */
+	private void handle(WatchKey key, Set<Path> changed) {
+		Path directory = directories.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			try {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) { // Case: events were lost
+					rescan(changed);
+					continue;
+				}
+
+				Path path = directory.resolve( (Path) event.context() );
+
+				if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path) ) {
+					register(path, changed);
+				}
+				else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) { // Case: a file, or a whole directory of them
+					Iterator<Path> it = files.iterator();
+					while ( it.hasNext() ) {
+						Path file = it.next();
+						if ( !file.startsWith(path) ) continue;
+
+						changed.add(file);
+						it.remove();
+					}
+				}
+				else if ( TextFileFinder.IS_TEXT.test(path) ) {
+					changed.add(path);
+					files.add(path);
+				}
+			}
+			catch (IOException e) {
+				log.catching(Level.DEBUG, e);
+			}
+		}
+
+		if ( !key.reset() ) directories.remove(key); // Case: directory is gone
+	}
+
+	/**
+	 * Watches a directory and every directory under it, and adds every text file in them to a batch
+	 * @param directory directory
+	 * @param changed batch of changed files
+	 * @throws IOException in case of IO Error
+	 */
+	private void register(Path directory, Set<Path> changed) throws IOException {
+		try ( Stream<Path> paths = Files.walk(directory, FileVisitOption.FOLLOW_LINKS) ) {
+			Iterator<Path> it = paths.iterator();
+
+			while ( it.hasNext() ) {
+				Path path = it.next();
+
+				if ( Files.isDirectory(path) ) {
+					WatchKey key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+					directories.put(key, path);
+				}
+				else if ( TextFileFinder.IS_TEXT.test(path) ) {
+					changed.add(path);
+					files.add(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scans the whole tree again, after events were lost. Every text file counts as changed, along with every one
+	 * that's no longer there.
+	 * @param changed batch of changed files
+	 * @throws IOException in case of IO Error
+	 */
+	private void rescan(Set<Path> changed) throws IOException {
+		log.debug("Directory watcher lost events; scanning {} again", root);
+		Set<Path> found = new HashSet<>();
+		register(root, found);
+
+		changed.addAll(found);
+		changed.addAll( files.stream().filter(file -> !found.contains(file)).collect(Collectors.toSet()) );
+		files.retainAll(found);
+	}
+}
@@ -29,11 +29,17 @@ public class Driver {
 	/** Default port */
 	public static final int PORT = 8080;
 	
+	/** Default time to wait after a file changes before reindexing it, in ms, with -watch */
+	public static final int WATCH_REFRESH = 1000;
+	
 	/** Logger */
 	public static Logger log = LogManager.getLogger();
 	
 	/** Static representation of commandline args, for use w/ server */
 	private static String[] args;
+	
+	/** Search engine shared by every server request. Its index is built once, before the server starts. */
+	private static SearchEngine sharedEngine;
 
 	// Note: THIS IS PROJECT 4 BRANCH - SWITCH TO MAIN ONE ONCE DESIGN PASSES
 	/**
@@ -49,6 +55,9 @@ public class Driver {
 
 		// Creating objects
 		ArgumentMap argMap = new ArgumentMap(args);
+		if (argMap.hasFlag("-stemcache")) { // max number of words whose stems are remembered; 0 turns the cache off
+			StemCache.setShared( new StemCache(argMap.getInteger("-stemcache", StemCache.DEFAULT_CAPACITY)) );
+		}
 		SearchEngine searchEngine = SearchEngine.Factory.create(argMap);
 		Server server = null;
 		
@@ -62,7 +71,23 @@ public class Driver {
 		 * Then when running the searchEngine funcs, just change String to Path/URL as needed
 		 * 
 		 */
-		if (argMap.hasFlag("-server")) {
+		try {
+			searchEngine.getStems();
+		}
+		catch (Exception e) {
+			System.err.printf( "Could not get stems from path: %s%n", searchEngine.getSeed() );
+		}
+		
+		if (argMap.hasFlag("-watch")) { // Keeps the index up to date with the -text directory, until the program is stopped
+			try {
+				searchEngine.watch( Duration.ofMillis(argMap.getInteger("-watch", WATCH_REFRESH)) );
+			}
+			catch (Exception e) {
+				System.err.printf( "Error: Could not watch path for changes: %s%n", searchEngine.getSeed() );
+			}
+		}
+		
+		if (argMap.hasFlag("-server")) { // Start after getStems(), so requests only search the already built index
 			log.info("OH GOD IT'S SERVER TIME");
 			server = new Server();
 			ServerConnector connector = new ServerConnector(server);
@@ -76,6 +101,7 @@ public class Driver {
 			server.setHandler(handler);
 			try {
 				Driver.args = args;
+				Driver.sharedEngine = searchEngine;
 				server.start();
 				log.info("Server started: {}", server.getState());
 
@@ -86,15 +112,6 @@ public class Driver {
 			
 		}
 		
-		
-		
-		try {
-			searchEngine.getStems();
-		}
-		catch (Exception e) {
-			System.err.printf( "Could not get stems from path: %s%n", searchEngine.getSeed() );
-		}
-		
 		if (argMap.hasFlag("-query")) {
 			final Path query = argMap.getPath("-query");
 			
@@ -124,6 +141,20 @@ public class Driver {
 			}
 		}
 		
+		if (argMap.hasFlag("-save")) { // Print InvertedIndex data to file (in binary format), for use with -load
+			final Path save = argMap.getPath( "-save", Path.of("index.bin") );
+			
+			try {
+				searchEngine.outputBinaryIndexTo(save);
+			}
+			catch (IOException e) {
+				System.err.printf("Error: Error occurred while dealing with path: %s%n", save);
+			}
+			catch(Exception e) {
+				System.err.printf("Error: Could not output binary inverted index to file: %s%n", save);
+			}
+		}
+		
 		if (argMap.hasFlag("-counts")) { // Prints file string count data to file (in JSON format)
 			final Path counts = argMap.getPath( "-counts", Path.of("counts.json") );
 			
@@ -153,6 +184,12 @@ public class Driver {
 			}
 		}
 		
+		try {
+			searchEngine.joinWatcher(); // the watcher reindexes through the queue, so it has to stop first
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		
 		searchEngine.joinQueue();
 		
@@ -163,6 +200,11 @@ public class Driver {
 			System.err.println("Error - server time");
 		}
 		
+		log.debug("Stem cache: {}", StemCache.shared());
+		
+		WorkQueue.Metrics metrics = searchEngine.getQueueMetrics();
+		if (metrics != null) log.info("Work queue: {}", metrics);
+		
 		// calculate time elapsed and output
 		Duration elapsed = Duration.between(start, Instant.now());
 		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
@@ -190,6 +232,9 @@ public class Driver {
 		
 		/** For convenience */
 		public static final String EXACT = "exact";
+		
+		/** For convenience */
+		public static final String LIMIT = "limit";
 
 		// Start of this is copied from HeaderServer hw
 		@Override
@@ -228,6 +273,7 @@ public class Driver {
 			printPTag(out, "<input type=\"submit\" value=\"SEARCH\">", base + 3);
 			printToggleButton(request, out, DARK_MODE, "Enable dark mode", base + 2);
 			printToggleButton(request, out, EXACT, "Search with exact words only", base + 2);
+			printLimitField(request, out, base + 2);
 			out.printf("%s</form>", "\t".repeat(base + 2));
 			
 			out.printf("%s</body>%n", "\t".repeat(base + 1));
@@ -286,6 +332,20 @@ public class Driver {
 			out.printf("%s<label for=\"" + parameter + "\">" + buttonName + "</label><br>", "\t".repeat(indent));
 		}
 		
+		/**
+		 * Prints the field for the maximum number of results to show
+		 * @param request HttpServletRequest
+		 * @param out PrintWriter
+		 * @param indent base indent level
+		 */
+		private void printLimitField(HttpServletRequest request, PrintWriter out, int indent) {
+			String limit = request.getParameter(LIMIT) != null ? StringEscapeUtils.escapeHtml4( request.getParameter(LIMIT) ) : "";
+			
+			out.printf("%s<label for=\"" + LIMIT + "\">Show at most</label>%n", "\t".repeat(indent));
+			out.printf("%s<input type=\"number\" id=\"" + LIMIT + "\" name=\"" + LIMIT + "\" min=\"0\" value=\"" + limit
+					+ "\"> results (empty or 0: show all)<br>%n", "\t".repeat(indent));
+		}
+		
 		/**
 		 * Prints search results
 		 * @param request HttpServletRequest
@@ -306,14 +366,14 @@ public class Driver {
 				argMap.parse(new String[] {"-exact"});
 			}
 			
-			SearchEngine searchEngine = SearchEngine.Factory.create(argMap);
+			if (request.getParameter(LIMIT) != null && !request.getParameter(LIMIT).isBlank()) {
+				argMap.parse(new String[] {"-limit", request.getParameter(LIMIT).strip()});
+			}
 			
 			try {
 				Instant start = Instant.now();
-				searchEngine.getStems();
-				searchEngine.searchFrom(safeInput);
-			//	searchEngine.joinQueue();
-				printPTag(out, "RESULTS: \n" + searchEngine.outputResultsToWeb(start), indent);
+				String results = sharedEngine.searchToWeb(safeInput, argMap.hasFlag("-exact"), argMap.getInteger("-limit", 0), start);
+				printPTag(out, "RESULTS: \n" + results, indent);
 			}
 			catch (Exception e) {
 				log.catching(Level.ERROR, e);
@@ -0,0 +1,255 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Class whose sole responsibility is to run tasks on a standard {@link ExecutorService} as a {@link TaskExecutor}:
+ * it counts pending tasks, so they can be waited on, and keeps track of the group of the task each thread is running,
+ * so tasks submitted by a task in a group join it.
+ * <p>
+ * Two backends are provided: a {@link ForkJoinPool}, where tasks submitted by a task go on its worker's own deque and
+ * idle workers steal them, and a new virtual thread per task (Java 21 or later). On older versions of Java, the
+ * virtual thread backend falls back to a small fixed pool of platform threads, since each one is a whole OS thread.
+ * @author JRRed
+ *
+ */
+public class ExecutorServiceAdapter implements TaskExecutor {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
+
+	/** Most platform threads started in place of virtual threads, on versions of Java without them */
+	public static final int MAX_PLATFORM_THREADS = 32;
+
+	/** executor the tasks run on */
+	private final ExecutorService service;
+
+	/** number of tasks the executor runs at once */
+	private final int threads;
+
+	/** number of tasks that haven't finished */
+	private final AtomicInteger pending;
+
+	/** group of the task each thread is running, if it belongs to one */
+	private final ThreadLocal<Group> current;
+
+	/**
+	 * Constructor
+	 * @param service executor the tasks run on
+	 * @param threads number of tasks the executor runs at once
+	 */
+	public ExecutorServiceAdapter(ExecutorService service, int threads) {
+		this.service = service;
+		this.threads = threads;
+		this.pending = new AtomicInteger();
+		this.current = new ThreadLocal<>();
+	}
+
+	/**
+	 * Creates a task executor backed by a fork/join pool
+	 * @param threads parallelism of the pool
+	 * @return A task executor backed by a fork/join pool
+	 */
+	public static ExecutorServiceAdapter forkJoin(int threads) {
+		int safe = threads > 0 ? threads : WorkQueue.DEFAULT;
+		return new ExecutorServiceAdapter(new ForkJoinPool(safe), safe);
+	}
+
+	/**
+	 * Creates a task executor that runs each task on a new virtual thread. On versions of Java without virtual
+	 * threads, tasks run on a fixed pool of platform threads instead.
+	 * @param threads number of tasks the rest of the search engine should assume run at once (e.g. to shard the index)
+	 * @return A task executor that runs each task on a new virtual thread
+	 * @see #newPlatformThreadExecutor(int)
+	 */
+	public static ExecutorServiceAdapter virtual(int threads) {
+		int safe = threads > 0 ? threads : WorkQueue.DEFAULT;
+		ExecutorService service = newVirtualThreadExecutor();
+		if (service == null) service = newPlatformThreadExecutor(safe);
+		return new ExecutorServiceAdapter(service, safe);
+	}
+
+	/**
+	 * Creates an executor that runs each task on a new virtual thread. It's looked up at run time, since the build
+	 * targets a version of Java without virtual threads.
+	 * @return An executor that runs each task on a new virtual thread, or null if this version of Java doesn't have
+	 * virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			log.catching(Level.DEBUG, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a fixed pool of platform threads, to use in place of virtual threads on versions of Java without them.
+	 * The pool is capped at {@link #MAX_PLATFORM_THREADS}, since hundreds of OS threads cost far more than hundreds
+	 * of virtual ones, and a warning is printed so the fallback isn't silent.
+	 * @param threads number of threads wanted
+	 * @return A fixed pool of at most {@link #MAX_PLATFORM_THREADS} platform threads
+	 */
+	public static ExecutorService newPlatformThreadExecutor(int threads) {
+		int capped = Math.max( Math.min(threads, MAX_PLATFORM_THREADS), 1 );
+		System.err.printf("Warning: Virtual threads need Java 21 or later; using %d platform threads instead.%n", capped);
+		return Executors.newFixedThreadPool(capped);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		Group group = current.get();
+		if (group != null) {
+			group.execute(task);
+		}
+		else {
+			run(task, null);
+		}
+	}
+
+	@Override
+	public TaskGroup newGroup() {
+		return new Group();
+	}
+
+	/**
+	 * Runs a task on the executor, as part of a group
+	 * @param task task
+	 * @param group group the task belongs to (which already counts it as pending), or null
+	 * @throws RejectedExecutionException if the executor rejects the task (e.g. after {@link #join()})
+	 */
+	private void run(Runnable task, Group group) {
+		pending.incrementAndGet();
+
+		try {
+			service.execute( () -> {
+				Group previous = current.get();
+				current.set(group);
+
+				try {
+					task.run();
+				}
+				catch (RuntimeException e) { // same as WorkQueue, so one bad task doesn't take down the rest
+					System.err.println("Warning: Executor encountered an exception while running.");
+					log.catching(Level.DEBUG, e);
+				}
+				finally {
+					current.set(previous);
+					if (group != null) group.decrementPending();
+					decrementPending();
+				}
+			} );
+		}
+		catch (RejectedExecutionException e) { // the task never runs, so don't leave finish() and await() waiting on it
+			if (group != null) group.decrementPending();
+			decrementPending();
+			throw e;
+		}
+	}
+
+	/** Safely decrements pending. If after decrementing, pending == 0, notifies all waiting threads */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public void finish() {
+		try {
+			synchronized (this) {
+				while (pending.get() > 0) {
+					this.wait();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void join() {
+		finish();
+		service.shutdown();
+
+		try {
+			while ( !service.awaitTermination(1, TimeUnit.MINUTES) ) {
+				log.debug("Waiting for the executor to terminate...");
+			}
+		}
+		catch (InterruptedException e) {
+			System.err.println("Warning: Executor interrupted while joining.");
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public int size() {
+		return threads;
+	}
+
+	/**
+	 * Class whose sole responsibility is to keep track of a group of tasks on this executor
+	 * @author JRRed
+	 *
+	 */
+	private class Group implements TaskGroup {
+		/** Keeps track of how many of this group's tasks haven't finished */
+		private final AtomicInteger pending;
+
+		/**
+		 * Constructor
+		 */
+		private Group() {
+			this.pending = new AtomicInteger();
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			pending.incrementAndGet();
+			run(task, this);
+		}
+
+		@Override
+		public void await() {
+			try {
+				synchronized (this) {
+					while (pending.get() > 0) {
+						this.wait();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				log.catching(Level.DEBUG, e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public int pending() {
+			return pending.get();
+		}
+
+		/** Safely decrements pending. If after decrementing, pending == 0, notifies all waiting threads */
+		private void decrementPending() {
+			if (pending.decrementAndGet() == 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,627 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only snapshot of an InvertedIndex, created by {@link InvertedIndex#freeze()}. It only implements the read-only
+ * {@link SearchableIndex}, so it can't be handed to anything that would try to modify it. Instead of nested trees,
+ * everything is stored in flat sorted arrays (compressed sparse row layout):
+ * <pre>
+ * terms[t]                                              -&gt; t-th string, sorted
+ * docIds[termOffsets[t] .. termOffsets[t+1])            -&gt; location IDs containing terms[t], sorted
+ * positions[positionOffsets[p] .. positionOffsets[p+1]) -&gt; positions of posting p, sorted
+ * </pre>
+ * The strings are kept in a {@link TermDictionary}, which finds the range of strings under a prefix with two binary
+ * searches. Location IDs are assigned in sorted order of location name. Since nothing can change after creation, this
+ * class is safe to search from many threads without any locking.
+ * <p>
+ * The index can be saved with {@link #toBinary(Path)} and opened again with {@link #fromBinary(Path)}. The file
+ * format (all numbers big-endian) is:
+ * <pre>
+ * int magic ("SIDX"), int version
+ * int numLocations, int numTerms, int numPostings, int numPositions
+ * long length of the string section
+ * string section: numLocations location names, then numTerms strings, each as (int length, UTF-8 bytes)
+ * int[numLocations] counts
+ * int[numTerms + 1] termOffsets
+ * int[numPostings] docIds
+ * int[numPostings + 1] positionOffsets
+ * int[numPositions] positions
+ * </pre>
+ * Only the strings and counts are read into memory when a file is opened; the four int arrays (which are most
+ * of the file) are memory-mapped, so the OS pages them in as searches touch them. Each section is mapped on its own,
+ * so the file can be larger than 2 GB, but no one section can. Every offset and location ID is checked when the
+ * file is opened (positions aren't, since nothing is looked up by them), so a damaged file is rejected up front
+ * instead of failing in the middle of a search.
+ * @author JRRed
+ *
+ */
+public class ImmutableInvertedIndex implements SearchableIndex {
+	/** Marks the start of a binary index file ("SIDX") */
+	private static final int MAGIC = 0x53494458;
+
+	/** Version of the binary index file format */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Size (in bytes) of the header of a binary index file */
+	private static final int HEADER_SIZE = 6 * Integer.BYTES + Long.BYTES;
+
+	/** sorted strings */
+	private final TermDictionary terms;
+
+	/** start of each string's postings in docIds; has one extra entry at the end */
+	private final IntBuffer termOffsets;
+
+	/** location ID of each posting */
+	private final IntBuffer docIds;
+
+	/** start of each posting's positions in positions; has one extra entry at the end */
+	private final IntBuffer positionOffsets;
+
+	/** positions of every posting */
+	private final IntBuffer positions;
+
+	/** sorted location names, indexed by location ID */
+	private final String[] locations;
+
+	/** word count of each location, indexed by location ID */
+	private final int[] counts;
+
+	/**
+	 * Constructor
+	 * @param terms sorted strings
+	 * @param termOffsets start of each string's postings in docIds, plus one extra entry at the end
+	 * @param docIds location ID of each posting
+	 * @param positionOffsets start of each posting's positions in positions, plus one extra entry at the end
+	 * @param positions positions of every posting
+	 * @param locations sorted location names
+	 * @param counts word count of each location
+	 */
+	ImmutableInvertedIndex(String[] terms, IntBuffer termOffsets, IntBuffer docIds, IntBuffer positionOffsets,
+			IntBuffer positions, String[] locations, int[] counts) {
+		this.terms = new TermDictionary(terms);
+		this.termOffsets = termOffsets;
+		this.docIds = docIds;
+		this.positionOffsets = positionOffsets;
+		this.positions = positions;
+		this.locations = locations;
+		this.counts = counts;
+	}
+
+	@Override
+	public ImmutableInvertedIndex freeze() {
+		return this;
+	}
+
+	/**
+	 * Copies this index into a new, modifiable InvertedIndex (e.g. to add to an index loaded from a binary file)
+	 * @return A modifiable copy of this index
+	 */
+	public InvertedIndex thaw() {
+		LocationDictionary dictionary = new LocationDictionary();
+		for (int id = 0; id < locations.length; id++) {
+			dictionary.updateCount( dictionary.intern(locations[id]), counts[id] ); // IDs match, since the dictionary starts empty
+		}
+
+		InvertedIndex thawed = new InvertedIndex(dictionary);
+		for (int term = 0; term < terms.size(); term++) {
+			String str = terms.term(term);
+
+			for (int p = termOffsets.get(term); p < termOffsets.get(term + 1); p++) {
+				PositionSet set = new PositionSet();
+				for (int i = positionOffsets.get(p); i < positionOffsets.get(p + 1); i++) {
+					set.add( positions.get(i) );
+				}
+				thawed.addPositions( str, docIds.get(p), set );
+			}
+		}
+		return thawed;
+	}
+
+	@Override
+	public Set<String> get() {
+		return Collections.unmodifiableSet( new TreeSet<>(Arrays.asList( terms.toArray() )) );
+	}
+
+	@Override
+	public Set<String> get(String str) {
+		int term = term(str);
+		if (term < 0) return Collections.emptySet();
+
+		Set<String> names = new TreeSet<>();
+		for (int p = termOffsets.get(term); p < termOffsets.get(term + 1); p++) {
+			names.add( locations[ docIds.get(p) ] );
+		}
+		return Collections.unmodifiableSet(names);
+	}
+
+	@Override
+	public Set<Integer> get(String str, String location) {
+		int posting = posting(str, location);
+		return posting >= 0 ? Collections.unmodifiableSet( new TreeSet<>(positions(posting)) ) : Collections.emptySet();
+	}
+
+	@Override
+	public Map<String, Integer> getCounts() {
+		Map<String, Integer> map = new TreeMap<>();
+		for (int id = 0; id < locations.length; id++) {
+			map.put(locations[id], counts[id]);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public int countsSize() {
+		return locations.length;
+	}
+
+	@Override
+	public int countsSize(String location) {
+		int id = Arrays.binarySearch(locations, location);
+		return id >= 0 ? counts[id] : 0;
+	}
+
+	@Override
+	public boolean contains(String str) {
+		return term(str) >= 0;
+	}
+
+	@Override
+	public boolean contains(String str, String location) {
+		return posting(str, location) >= 0;
+	}
+
+	@Override
+	public boolean contains(String str, String location, int position) {
+		int posting = posting(str, location);
+		return posting >= 0
+				&& binarySearch(positions, positionOffsets.get(posting), positionOffsets.get(posting + 1), position) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return terms.size();
+	}
+
+	@Override
+	public int size(String str) {
+		int term = term(str);
+		return term >= 0 ? termOffsets.get(term + 1) - termOffsets.get(term) : 0;
+	}
+
+	@Override
+	public int size(String str, String location) {
+		int posting = posting(str, location);
+		return posting >= 0 ? positionOffsets.get(posting + 1) - positionOffsets.get(posting) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+
+	@Override
+	public String toJson() {
+		return SimpleJsonWriter.FunctionalWriter.writeToString(this, (elem, writer) -> elem.toJson(writer, 0));
+	}
+
+	@Override
+	public void toJson(Path path) throws IOException {
+		SimpleJsonWriter.FunctionalWriter.writeToFile(this, path, (elem, writer) -> elem.toJson(writer, 0));
+	}
+
+	/**
+	 * Writes this index in JSON format
+	 * @param writer writer to use
+	 * @param level base indent level
+	 * @throws IOException in case of IO Error
+	 */
+	private void toJson(Writer writer, int level) throws IOException {
+		Iterator<Map.Entry<String, Map<String, Collection<Integer>>>> entries = IntStream.range(0, terms.size())
+				.mapToObj(term -> Map.entry( terms.term(term), postings(term) ))
+				.iterator();
+
+		SearchJsonWriter.asStringMapStringMapIntCollection(entries, writer, level);
+	}
+
+	/**
+	 * Writes this index to a binary file, which can be opened again with {@link #fromBinary(Path)}. The file is
+	 * written next to path and then moved into place, since this index may be memory-mapped from path itself (e.g.
+	 * when it was loaded from the file it's being saved to), and truncating it would pull the data out from under it.
+	 * @param path output path
+	 * @throws IOException in case of IO Error
+	 */
+	@Override
+	public void toBinary(Path path) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			writeBinary(temp);
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes this index to a binary file
+	 * @param path output path, which must not be the file this index is mapped from
+	 * @throws IOException in case of IO Error
+	 */
+	private void writeBinary(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream(Files.newOutputStream(path)) )) {
+			byte[][] locationBytes = encode(locations);
+			byte[][] termBytes = encode( terms.toArray() );
+			long stringsLength = 0;
+			for (byte[] bytes : locationBytes) stringsLength += Integer.BYTES + bytes.length;
+			for (byte[] bytes : termBytes) stringsLength += Integer.BYTES + bytes.length;
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(locations.length);
+			out.writeInt( terms.size() );
+			out.writeInt(docIds.limit());
+			out.writeInt(positions.limit());
+			out.writeLong(stringsLength);
+
+			writeStrings(locationBytes, out);
+			writeStrings(termBytes, out);
+			for (int count : counts) out.writeInt(count);
+			writeInts(termOffsets, out);
+			writeInts(docIds, out);
+			writeInts(positionOffsets, out);
+			writeInts(positions, out);
+		}
+	}
+
+	/**
+	 * Opens an index written by {@link #toBinary(Path)}. The strings are read into memory, and everything else is
+	 * memory-mapped, so this returns quickly even for large indexes.
+	 * @param path path of the binary index file
+	 * @return The index stored in the file
+	 * @throws IOException if the file can't be read, isn't a binary index file of a supported version, or is
+	 * damaged (e.g. truncated, with offsets or location IDs that point outside their sections, or with strings,
+	 * location IDs or positions out of the sorted order searches rely on)
+	 */
+	public static ImmutableInvertedIndex fromBinary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) throw new IOException("Not a binary index file: " + path);
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) throw new IOException("Not a binary index file: " + path);
+
+			int version = header.getInt();
+			if (version != FORMAT_VERSION) throw new IOException("Unsupported binary index version " + version + ": " + path);
+
+			int numLocations = header.getInt();
+			int numTerms = header.getInt();
+			int numPostings = header.getInt();
+			int numPositions = header.getInt();
+			long stringsLength = header.getLong();
+
+			if (numLocations < 0 || numTerms < 0 || numPostings < 0 || numPositions < 0 || stringsLength < 0) {
+				throw new IOException("Damaged binary index file (negative size in header): " + path);
+			}
+			// Each count is below 2^31, so the int sections' total length fits in a long. The string section must fit
+			// in one mapping (see mapSection); checking that first also keeps the sum below from overflowing.
+			long intsLength = (long)Integer.BYTES
+					* ( (long)numLocations + numTerms + 1 + numPostings + numPostings + 1 + numPositions );
+			if (stringsLength > Integer.MAX_VALUE || HEADER_SIZE + stringsLength + intsLength != channel.size()) {
+				throw new IOException("Damaged binary index file (header doesn't match file size): " + path);
+			}
+
+			long offset = HEADER_SIZE;
+			ByteBuffer strings = mapSection(channel, offset, stringsLength, path);
+			String[] locations = readStrings(strings, numLocations, path);
+			String[] terms = readStrings(strings, numTerms, path);
+			if ( strings.hasRemaining() ) throw new IOException("Damaged binary index file (extra bytes after strings): " + path);
+			offset += stringsLength;
+
+			int[] counts = new int[numLocations];
+			mapInts(channel, offset, numLocations, path).get(counts);
+			offset += (long)Integer.BYTES * numLocations;
+
+			IntBuffer termOffsets = mapInts(channel, offset, numTerms + 1, path);
+			offset += (long)Integer.BYTES * (numTerms + 1);
+			IntBuffer docIds = mapInts(channel, offset, numPostings, path);
+			offset += (long)Integer.BYTES * numPostings;
+			IntBuffer positionOffsets = mapInts(channel, offset, numPostings + 1, path);
+			offset += (long)Integer.BYTES * (numPostings + 1);
+			IntBuffer positions = mapInts(channel, offset, numPositions, path);
+
+			checkOffsets(termOffsets, numPostings, "term", path);
+			checkOffsets(positionOffsets, numPositions, "position", path);
+			for (int t = 0; t < numTerms; t++) {
+				int previous = -1;
+				for (int p = termOffsets.get(t); p < termOffsets.get(t + 1); p++) {
+					int id = docIds.get(p);
+					if (id < 0 || id >= numLocations) {
+						throw new IOException("Damaged binary index file (location ID " + id + " out of range): " + path);
+					}
+					if (id <= previous) {
+						throw new IOException("Damaged binary index file (location IDs of term " + t + " out of order): " + path);
+					}
+					previous = id;
+					checkSorted(positions, positionOffsets.get(p), positionOffsets.get(p + 1), p, path);
+				}
+			}
+
+			return new ImmutableInvertedIndex(terms, termOffsets, docIds, positionOffsets, positions, locations, counts);
+		}
+	}
+
+	/**
+	 * Makes sure a section of offsets starts at 0, never goes backwards, and ends at the size of the section it
+	 * points into
+	 * @param offsets section of offsets; has one extra entry at the end
+	 * @param size size of the section the offsets point into
+	 * @param name name of the offsets, for the error message
+	 * @param path path of the binary index file, for the error message
+	 * @throws IOException if the offsets are out of range
+	 */
+	private static void checkOffsets(IntBuffer offsets, int size, String name, Path path) throws IOException {
+		int previous = 0;
+		for (int i = 0; i < offsets.limit(); i++) {
+			int offset = offsets.get(i);
+			if ( offset < previous || offset > size || (i == 0 && offset != 0) ) {
+				throw new IOException("Damaged binary index file (" + name + " offset " + offset + " out of range): " + path);
+			}
+			previous = offset;
+		}
+		if (previous != size) {
+			throw new IOException("Damaged binary index file (" + name + " offsets end at " + previous + ", not " + size + "): " + path);
+		}
+	}
+
+	/**
+	 * Makes sure the positions of a posting are in strictly increasing order, since they're binary searched
+	 * @param positions section of positions
+	 * @param from index of the posting's first position
+	 * @param to index right after the posting's last position
+	 * @param posting index of the posting, for the error message
+	 * @param path path of the binary index file, for the error message
+	 * @throws IOException if the positions are out of order
+	 */
+	private static void checkSorted(IntBuffer positions, int from, int to, int posting, Path path) throws IOException {
+		for (int i = from + 1; i < to; i++) {
+			if ( positions.get(i) <= positions.get(i - 1) ) {
+				throw new IOException("Damaged binary index file (positions of posting " + posting + " out of order): " + path);
+			}
+		}
+	}
+
+	/**
+	 * Encodes strings as UTF-8
+	 * @param strings strings
+	 * @return UTF-8 bytes of each string
+	 */
+	private static byte[][] encode(String[] strings) {
+		byte[][] encoded = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return encoded;
+	}
+
+	/**
+	 * Writes encoded strings, each as (int length, bytes)
+	 * @param strings encoded strings
+	 * @param out output stream
+	 * @throws IOException in case of IO Error
+	 */
+	private static void writeStrings(byte[][] strings, DataOutputStream out) throws IOException {
+		for (byte[] bytes : strings) {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Writes every int in a buffer
+	 * @param buffer buffer
+	 * @param out output stream
+	 * @throws IOException in case of IO Error
+	 */
+	private static void writeInts(IntBuffer buffer, DataOutputStream out) throws IOException {
+		for (int i = 0; i < buffer.limit(); i++) {
+			out.writeInt( buffer.get(i) );
+		}
+	}
+
+	/**
+	 * Reads strings written by {@link #writeStrings(byte[][], DataOutputStream)}, which must be in strictly
+	 * increasing order, since they're binary searched
+	 * @param buffer buffer to read from
+	 * @param count number of strings to read
+	 * @param path path of the binary index file, for the error message
+	 * @return strings read
+	 * @throws IOException if the buffer runs out before every string has been read, or the strings are out of order
+	 */
+	private static String[] readStrings(ByteBuffer buffer, int count, Path path) throws IOException {
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++) {
+			int length = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Damaged binary index file (string section too short): " + path);
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			if ( i > 0 && strings[i].compareTo(strings[i - 1]) <= 0 ) {
+				throw new IOException("Damaged binary index file (strings out of order): " + path);
+			}
+		}
+		return strings;
+	}
+
+	/**
+	 * Memory-maps a section of ints in a file
+	 * @param channel file channel
+	 * @param offset offset of the section, in bytes
+	 * @param count number of ints in the section
+	 * @param path path of the binary index file, for the error message
+	 * @return buffer of the section's ints
+	 * @throws IOException in case of IO Error, or if the section is too large to map
+	 */
+	private static IntBuffer mapInts(FileChannel channel, long offset, int count, Path path) throws IOException {
+		return mapSection(channel, offset, (long)Integer.BYTES * count, path).asIntBuffer();
+	}
+
+	/**
+	 * Memory-maps a section of a file. A single mapping can't be larger than 2 GB, so neither can a section.
+	 * @param channel file channel
+	 * @param offset offset of the section, in bytes
+	 * @param length length of the section, in bytes
+	 * @param path path of the binary index file, for the error message
+	 * @return buffer of the section
+	 * @throws IOException in case of IO Error, or if the section is too large to map
+	 */
+	private static ByteBuffer mapSection(FileChannel channel, long offset, long length, Path path) throws IOException {
+		if (length < 0 || length > Integer.MAX_VALUE) { // negative if an int count overflowed
+			throw new IOException("Binary index file has a section larger than 2 GB, which can't be mapped: " + path);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	@Override
+	public String countsToJson() {
+		return SimpleJsonWriter.asObject( getCounts() );
+	}
+
+	@Override
+	public void countsToJson(Path path) throws IOException {
+		SimpleJsonWriter.asObject(getCounts(), path);
+	}
+
+	@Override
+	public List<InvertedIndex.SearchResult> exactSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get(locations.length);
+
+		for (String query : stems) {
+			int term = term(query);
+			if (term < 0) continue;
+			updateResults(term, scores);
+		}
+		return scores.results(id -> locations[id], id -> counts[id], limit);
+	}
+
+	@Override
+	public List<InvertedIndex.SearchResult> partialSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get(locations.length);
+
+		for (String query : stems) {
+			int end = terms.prefixEnd(query);
+			for (int term = terms.prefixStart(query); term < end; term++) {
+				updateResults(term, scores);
+			}
+		}
+		return scores.results(id -> locations[id], id -> counts[id], limit);
+	}
+
+	/**
+	 * Counts the matches of every posting of a string
+	 * @param term index of the string in terms
+	 * @param scores matches counted so far, by location ID. This function updates it.
+	 */
+	private void updateResults(int term, ScoreAccumulator scores) {
+		for (int p = termOffsets.get(term); p < termOffsets.get(term + 1); p++) {
+			scores.add( docIds.get(p), positionOffsets.get(p + 1) - positionOffsets.get(p) );
+		}
+	}
+
+	/**
+	 * Returns the index of a string in terms
+	 * @param str string
+	 * @return The index of the string in terms, or a negative number if it's not in this index
+	 * @see TermDictionary#indexOf(String)
+	 */
+	private int term(String str) {
+		return terms.indexOf(str);
+	}
+
+	/**
+	 * Returns the index of the posting for a string and location
+	 * @param str string
+	 * @param location location
+	 * @return The index of the posting, or a negative number if there isn't one
+	 */
+	private int posting(String str, String location) {
+		int term = term(str);
+		int id = Arrays.binarySearch(locations, location);
+		if (term < 0 || id < 0) return -1;
+
+		int posting = binarySearch(docIds, termOffsets.get(term), termOffsets.get(term + 1), id);
+		return posting >= 0 ? posting : -1;
+	}
+
+	/**
+	 * {@link Arrays#binarySearch(int[], int, int, int)} for an IntBuffer
+	 * @param buffer sorted buffer to search
+	 * @param from first index to search (inclusive)
+	 * @param to last index to search (exclusive)
+	 * @param key value to search for
+	 * @return index of the key, or (-(insertion point) - 1) if it's not in the buffer
+	 */
+	private static int binarySearch(IntBuffer buffer, int from, int to, int key) {
+		int low = from;
+		int high = to - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = buffer.get(mid);
+
+			if (value < key) low = mid + 1;
+			else if (value > key) high = mid - 1;
+			else return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns the postings of a string, as a map from location name to positions, sorted by location
+	 * @param term index of the string in terms
+	 * @return The postings of the string
+	 */
+	private Map<String, Collection<Integer>> postings(int term) {
+		Map<String, Collection<Integer>> postings = new LinkedHashMap<>();
+		for (int p = termOffsets.get(term); p < termOffsets.get(term + 1); p++) {
+			postings.put( locations[ docIds.get(p) ], positions(p) );
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns the positions of a posting
+	 * @param posting index of the posting
+	 * @return The positions of the posting
+	 */
+	private List<Integer> positions(int posting) {
+		List<Integer> list = new ArrayList<>(positionOffsets.get(posting + 1) - positionOffsets.get(posting));
+		for (int i = positionOffsets.get(posting); i < positionOffsets.get(posting + 1); i++) {
+			list.add( positions.get(i) );
+		}
+		return list;
+	}
+}
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Class whose sole responsibility is to bring a saved index up to date with the files under a seed, instead of
+ * building it from scratch. The index is saved in binary format (see {@link ImmutableInvertedIndex#toBinary(Path)}),
+ * with an {@link IndexManifest} next to it that remembers which version of each file the index was built from.
+ * <p>
+ * Each run loads the saved index, then only parses files that were added or modified since it was saved, and
+ * removes the documents of files that were modified or deleted. A file whose size and last modified time haven't
+ * changed is assumed to be unchanged; otherwise, it's hashed, so a file that was only touched isn't parsed again.
+ * The updated index and manifest are then saved over the old ones.
+ * <p>
+ * Files parsed through {@link #parseFile(Path)} or {@link #parseFiles(Collection)} (e.g. by a {@link DirectoryWatcher})
+ * go straight to the wrapped collector; they're caught up with on the next run, through the manifest.
+ * @author JRRed
+ *
+ */
+public class IncrementalStemCollector implements WordStemCollector {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
+
+	/** index to store stems into */
+	private final ModifiableIndex index;
+
+	/** collector used to parse added and modified files */
+	private final WordStemCollector collector;
+
+	/** path of the saved index */
+	private final Path indexPath;
+
+	/** path of the saved manifest */
+	private final Path manifestPath;
+
+	/**
+	 * Constructor
+	 * @param index index to store stems into; should be empty
+	 * @param collector collector used to parse added and modified files; should store stems into index
+	 * @param indexPath path of the saved index. The manifest is saved next to it, with ".manifest" added to its name.
+	 */
+	public IncrementalStemCollector(ModifiableIndex index, WordStemCollector collector, Path indexPath) {
+		this.index = index;
+		this.collector = collector;
+		this.indexPath = indexPath;
+		this.manifestPath = indexPath.resolveSibling(indexPath.getFileName() + ".manifest");
+	}
+
+	@Override
+	public void collectStemsFrom(String seed) throws IOException {
+		IndexManifest previous = load();
+		IndexManifest current = new IndexManifest();
+		Set<String> stale = new HashSet<>( previous.locations() ); // documents to remove: every saved one that's no longer up to date
+		List<Path> changed = new ArrayList<>();
+
+		try ( Stream<Path> paths = find(seed) ) {
+			Iterator<Path> it = paths.iterator();
+
+			while ( it.hasNext() ) {
+				Path path = it.next();
+				String location = path.toString();
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				IndexManifest.Entry entry = previous.get(location);
+				boolean isChanged = false;
+				
+				if ( entry == null || !entry.matches(attributes) ) {
+					IndexManifest.Entry newEntry = IndexManifest.entryOf(path, attributes); // read before parsing, so a later change is seen next time
+					isChanged = entry == null || !entry.hash().equals( newEntry.hash() );
+					entry = newEntry;
+				}
+				current.put(location, entry);
+				
+				if (isChanged) changed.add(path);
+				else stale.remove(location);
+			}
+		}
+
+		index.removeDocuments(stale);
+		collector.parseFiles(changed);
+		
+		long deleted = stale.stream().filter(location -> current.get(location) == null).count();
+		log.info("Incremental index: {} files unchanged, {} added or modified, {} deleted", current.size() - changed.size(),
+				changed.size(), deleted);
+		save(current);
+	}
+
+	@Override
+	public void parseFile(Path path) throws IOException {
+		collector.parseFile(path);
+	}
+
+	@Override
+	public void parseFiles(Collection<Path> paths) throws IOException {
+		collector.parseFiles(paths);
+	}
+
+	/**
+	 * Loads the saved index into index, and returns the saved manifest
+	 * @return The saved manifest, or an empty one if there's no saved index (or it can't be read)
+	 */
+	private IndexManifest load() {
+		if ( !Files.exists(indexPath) || !Files.exists(manifestPath) ) return new IndexManifest();
+
+		try {
+			IndexManifest manifest = IndexManifest.read(manifestPath);
+			index.attemptMergeWith( ImmutableInvertedIndex.fromBinary(indexPath).thaw() );
+			return manifest;
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.printf("Could not load saved index, rebuilding it: %s%n", indexPath);
+			index.clear();
+			return new IndexManifest();
+		}
+	}
+
+	/**
+	 * Saves index and a manifest. Each file is written next to its path and then moved into place, so a crash never
+	 * leaves half a file. The index is saved first: if only it gets saved, the next run sees the old manifest, and
+	 * parsing a file that's already in the index again gives the same index.
+	 * @param manifest manifest of index
+	 * @throws IOException in case of IO Error
+	 */
+	private void save(IndexManifest manifest) throws IOException {
+		Path indexTemp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		index.toBinary(indexTemp);
+		Files.move(indexTemp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Path manifestTemp = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+		manifest.write(manifestTemp);
+		Files.move(manifestTemp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the files under a seed, the same ones {@link WordStemCollector#collectStemsFrom(String)} would parse
+	 * @param seed seed: a directory, or a single file
+	 * @return A stream of the files under the seed
+	 * @throws IOException in case of IO Error
+	 */
+	private static Stream<Path> find(String seed) throws IOException {
+		Path seedPath = Path.of(seed);
+		if ( Files.isDirectory(seedPath) ) return TextFileFinder.find(seedPath);
+		if ( Files.isRegularFile(seedPath, java.nio.file.LinkOption.NOFOLLOW_LINKS) ) return Stream.of(seedPath);
+		return Stream.empty();
+	}
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Class whose sole responsibility is to remember which version of each file an index was built from: its size, last
+ * modified time, and a hash of its contents. Comparing a file against its entry tells whether it has to be parsed
+ * again.
+ * <p>
+ * A manifest is saved as a text file, one file per line:
+ * <pre>
+ * SIDX-MANIFEST (version)
+ * (size) TAB (last modified, in ms) TAB (SHA-256 of contents, in hex) TAB (location)
+ * </pre>
+ * @author JRRed
+ *
+ */
+public class IndexManifest {
+	/** First word of a manifest file */
+	private static final String MAGIC = "SIDX-MANIFEST";
+
+	/** Version of the manifest file format */
+	public static final int FORMAT_VERSION = 1;
+
+	/** map from location to the version of the file it was built from */
+	private final TreeMap<String, Entry> entries;
+
+	/**
+	 * Constructor
+	 */
+	public IndexManifest() {
+		this.entries = new TreeMap<>();
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent one version of a file
+	 * @author JRRed
+	 *
+	 */
+	public static class Entry {
+		/** file size, in bytes */
+		private final long size;
+
+		/** last modified time, in ms */
+		private final long modified;
+
+		/** SHA-256 of the file's contents, in hex */
+		private final String hash;
+
+		/**
+		 * Constructor
+		 * @param size file size, in bytes
+		 * @param modified last modified time, in ms
+		 * @param hash SHA-256 of the file's contents, in hex
+		 */
+		public Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns whether a file still has this entry's size and last modified time. If it does, it's assumed to
+		 * be unchanged, without hashing it.
+		 * @param attributes file attributes
+		 * @return Whether the file still has this entry's size and last modified time
+		 */
+		public boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+		}
+
+		/**
+		 * Returns the SHA-256 of the file's contents, in hex
+		 * @return The SHA-256 of the file's contents, in hex
+		 */
+		public String hash() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return size + "\t" + modified + "\t" + hash;
+		}
+	}
+
+	/**
+	 * Returns the entry of a location
+	 * @param location location
+	 * @return The entry of the location, or null if it isn't in this manifest
+	 */
+	public Entry get(String location) {
+		return entries.get(location);
+	}
+
+	/**
+	 * Sets the entry of a location
+	 * @param location location
+	 * @param entry entry
+	 */
+	public void put(String location, Entry entry) {
+		entries.put(location, entry);
+	}
+
+	/**
+	 * Returns an unmodifiable view of every location in this manifest
+	 * @return An unmodifiable view of every location in this manifest
+	 */
+	public Set<String> locations() {
+		return Collections.unmodifiableSet( entries.keySet() );
+	}
+
+	/**
+	 * Returns the number of locations in this manifest
+	 * @return The number of locations in this manifest
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Creates an entry for the current version of a file
+	 * @param path file path
+	 * @param attributes the file's attributes
+	 * @return An entry for the current version of the file
+	 * @throws IOException in case of IO Error
+	 */
+	public static Entry entryOf(Path path, BasicFileAttributes attributes) throws IOException {
+		return new Entry( attributes.size(), attributes.lastModifiedTime().toMillis(), hash(path) );
+	}
+
+	/**
+	 * Returns the SHA-256 of a file's contents, in hex
+	 * @param path file path
+	 * @return The SHA-256 of the file's contents, in hex
+	 * @throws IOException in case of IO Error
+	 */
+	public static String hash(Path path) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is always supported", e);
+		}
+
+		try ( InputStream in = Files.newInputStream(path) ) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ( (read = in.read(buffer)) != -1 ) {
+				digest.update(buffer, 0, read);
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append( String.format("%02x", b) );
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Writes this manifest to a file, which can be read again with {@link #read(Path)}
+	 * @param path output path
+	 * @throws IOException in case of IO Error
+	 */
+	public void write(Path path) throws IOException {
+		try ( BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8) ) {
+			writer.write(MAGIC + " " + FORMAT_VERSION);
+			writer.newLine();
+
+			for (var entry : entries.entrySet()) {
+				writer.write( entry.getValue() + "\t" + entry.getKey() );
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Reads a manifest written by {@link #write(Path)}
+	 * @param path path of the manifest file
+	 * @return The manifest stored in the file
+	 * @throws IOException if the file can't be read, or isn't a manifest file of a supported version
+	 */
+	public static IndexManifest read(Path path) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+
+		try ( BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8) ) {
+			String header = reader.readLine();
+			if ( !(MAGIC + " " + FORMAT_VERSION).equals(header) ) throw new IOException("Not a supported manifest file: " + path);
+
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				String[] fields = line.split("\t", 4); // the location is last, since it's the only field that could have a tab in it
+				if (fields.length != 4) throw new IOException("Malformed manifest line in " + path + ": " + line);
+
+				try {
+					manifest.put( fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]) );
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Malformed manifest line in " + path + ": " + line, e);
+				}
+			}
+		}
+		return manifest;
+	}
+}
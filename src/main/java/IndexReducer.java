@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class whose sole responsibility is to combine the local indexes built by worker threads into one index, pairwise
+ * and in parallel, so that only the final result has to be merged into the shared index.
+ * <p>
+ * Local indexes are combined like carries in a binary counter: each level holds at most one waiting index, made
+ * from 2^level local indexes. A thread that adds an index to an occupied level takes the waiting index, merges the
+ * two (without holding any lock), and carries the result up to the next level. Merges at different levels happen
+ * on different threads at the same time, and no index is merged more than log2(n) times.
+ * @author JRRed
+ *
+ */
+public class IndexReducer {
+	/** waiting index at each level, or null if that level is empty */
+	private final List<InvertedIndex> levels;
+
+	/**
+	 * Constructor
+	 */
+	public IndexReducer() {
+		this.levels = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a local index to this reducer, merging it with waiting indexes as long as there are any to merge with
+	 * @param local local index. Should not be used by the caller afterwards, since it may be merged into.
+	 */
+	public void add(InvertedIndex local) {
+		InvertedIndex current = local;
+
+		for (int level = 0; ; level++) {
+			InvertedIndex waiting;
+
+			synchronized (levels) {
+				if (level == levels.size()) levels.add(null);
+
+				waiting = levels.get(level);
+				levels.set(level, waiting == null ? current : null);
+			}
+			if (waiting == null) return;
+
+			current = merge(current, waiting);
+		}
+	}
+
+	/**
+	 * Merges every waiting index together, and empties this reducer
+	 * @return The merged index, or null if nothing was added
+	 * @note Precondition: no add() calls are still running
+	 */
+	public InvertedIndex finish() {
+		InvertedIndex result = null;
+
+		synchronized (levels) {
+			for (InvertedIndex waiting : levels) {
+				if (waiting == null) continue;
+				result = result == null ? waiting : merge(result, waiting);
+			}
+			levels.clear();
+		}
+		return result;
+	}
+
+	/**
+	 * Merges every waiting index together, then merges the result into a shared index
+	 * @param shared shared index
+	 * @note Precondition: no add() calls are still running
+	 */
+	public void publishTo(ModifiableIndex shared) {
+		InvertedIndex result = finish();
+		if (result != null) shared.attemptMergeWith(result);
+	}
+
+	/**
+	 * Merges two indexes, merging the smaller one into the bigger one
+	 * @param first first index
+	 * @param second second index
+	 * @return The index that was merged into
+	 */
+	private static InvertedIndex merge(InvertedIndex first, InvertedIndex second) {
+		if (first.size() < second.size()) {
+			second.attemptMergeWith(first);
+			return second;
+		}
+		first.attemptMergeWith(second);
+		return first;
+	}
+}
@@ -0,0 +1,750 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Multi-threaded implementation of WordStemCollector that splits parsing into stages, each with its own threads:
+ * <ol>
+ * <li>read: reads each file as blocks of bytes that end at a line break</li>
+ * <li>tokenize: decodes each block as UTF-8 and splits it into words</li>
+ * <li>stem: stems each block's words</li>
+ * <li>accumulate: adds each file's blocks, in order, to a local index for that file</li>
+ * <li>merge: combines the local indexes with an {@link IndexReducer}</li>
+ * </ol>
+ * Stages are connected by bounded queues. A stage that gets ahead of the next one waits for room in its queue,
+ * so only a bounded number of blocks are ever in flight, even when reading is much faster than stemming. Each stage
+ * counts how much it has done, how long it was busy, and how long it waited on the next stage, so the bottleneck
+ * can be found (see {@link #counters()}).
+ * <p>
+ * A file that can't be read or decoded is skipped entirely, like {@link MultiThreadedStemCollector} would skip it.
+ * @author JRRed
+ *
+ */
+public class IndexingPipeline implements WordStemCollector {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
+
+	/** Files are read in blocks of about this many bytes */
+	public static final int BLOCK_SIZE = 1 << 20;
+
+	/** Default capacity of each queue between stages, in items */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** Marks the end of the read stage's input. Compared by identity, so no real path is ever mistaken for it. */
+	private static final Path END_OF_FILES = Path.of("");
+
+	/** Marks the end of a block stage's input */
+	private static final Block END_OF_BLOCKS = new Block(null, -1, false);
+
+	/** Marks the end of the merge stage's input */
+	private static final InvertedIndex END_OF_INDEXES = new InvertedIndex();
+
+	/** thread safe index to store stems into */
+	private final ModifiableIndex threadSafe;
+
+	/** Combines the local index of every file, so only one merge into threadSafe is needed */
+	private final IndexReducer reducer;
+
+	/** read stage */
+	private final ReadStage read;
+
+	/** tokenize stage */
+	private final TokenizeStage tokenize;
+
+	/** stem stage */
+	private final StemStage stem;
+
+	/** accumulate stage */
+	private final AccumulateStage accumulate;
+
+	/** merge stage */
+	private final MergeStage merge;
+
+	/** Whether the stages are running, i.e. parseFile() hands files straight to the read stage */
+	private boolean running;
+
+	/**
+	 * Constructor
+	 * @param threadSafe thread safe inverted index (e.g. a ShardedInvertedIndex)
+	 * @param threads number of threads of each stage, in order: read, tokenize, stem, accumulate, merge
+	 * @param capacity capacity of each queue between stages, in items
+	 */
+	public IndexingPipeline(ModifiableIndex threadSafe, int[] threads, int capacity) {
+		if (threads.length != 5) throw new IllegalArgumentException("Expected 5 thread counts, got " + threads.length);
+
+		this.threadSafe = threadSafe;
+		this.reducer = new IndexReducer();
+		this.read = new ReadStage(threads[0], capacity);
+		this.tokenize = new TokenizeStage(threads[1], capacity);
+		this.stem = new StemStage(threads[2], capacity);
+		this.accumulate = new AccumulateStage(threads[3], capacity);
+		this.merge = new MergeStage(threads[4], capacity);
+		this.running = false;
+	}
+
+	/**
+	 * Parses the thread counts of each stage from a string like "1,4,4,1,1" (read, tokenize, stem, accumulate,
+	 * merge)
+	 * @param value string to parse, or null for the defaults
+	 * @param threads default number of threads of the tokenize and stem stages
+	 * @return The thread counts of each stage. Missing or invalid counts are replaced with the defaults.
+	 */
+	public static int[] parseThreads(String value, int threads) {
+		int[] counts = { 1, threads, threads, 1, 1 };
+		if (value == null) return counts;
+
+		String[] parts = value.split(",");
+		for (int i = 0; i < Math.min(parts.length, counts.length); i++) {
+			try {
+				int count = Integer.parseInt( parts[i].strip() );
+				if (count > 0) counts[i] = count;
+			}
+			catch (NumberFormatException e) {
+				System.err.printf("ERROR - Invalid pipeline thread count: %s%n", parts[i]);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public void collectStemsFrom(String seed) throws IOException {
+		run( () -> WordStemCollector.super.collectStemsFrom(seed) );
+	}
+
+	@Override
+	public void parseFiles(Collection<Path> paths) throws IOException {
+		run( () -> WordStemCollector.super.parseFiles(paths) );
+	}
+
+	@Override
+	public void parseFile(Path path) throws IOException {
+		if (!running) {
+			parseFiles( List.of(path) );
+			return;
+		}
+
+		try {
+			read.input.put(path);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while handing a file to the pipeline: " + path, e);
+		}
+	}
+
+	/**
+	 * Functional interface for the part of a run that hands files to {@link #parseFile(Path)}
+	 * @author JRRed
+	 *
+	 */
+	@FunctionalInterface
+	private interface Feeder {
+		/**
+		 * Hands files to parseFile()
+		 * @throws IOException in case of IO Error
+		 */
+		void feed() throws IOException;
+	}
+
+	/**
+	 * Starts every stage, feeds it files, then closes each stage in order once the one before it is done, and
+	 * merges the result into threadSafe
+	 * @param feeder hands files to parseFile()
+	 * @throws IOException in case of IO Error
+	 */
+	private void run(Feeder feeder) throws IOException {
+		read.start();
+		tokenize.start();
+		stem.start();
+		accumulate.start();
+		merge.start();
+		running = true;
+
+		try {
+			feeder.feed();
+		}
+		finally {
+			running = false;
+			read.close();
+			tokenize.close();
+			stem.close();
+			accumulate.close();
+			merge.close();
+		}
+
+		reducer.publishTo(threadSafe);
+		log.info("Indexing pipeline: {}", this);
+	}
+
+	/**
+	 * Returns the counters of each stage, in order
+	 * @return The counters of each stage, in order
+	 */
+	public List<Counters> counters() {
+		return List.of(read.counters, tokenize.counters, stem.counters, accumulate.counters, merge.counters);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Counters counters : counters()) {
+			builder.append( System.lineSeparator() ).append("\t").append(counters);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Class whose sole responsibility is to count the work done by one stage. Counts add up over every run.
+	 * @author JRRed
+	 *
+	 */
+	public static class Counters {
+		/** stage name */
+		private final String name;
+
+		/** what the stage's units are, e.g. "bytes" */
+		private final String unit;
+
+		/** number of threads */
+		private final int threads;
+
+		/** number of items processed */
+		private final LongAdder items;
+
+		/** number of units processed */
+		private final LongAdder units;
+
+		/** time spent processing items, in ns, summed over every thread, including time spent blocked */
+		private final LongAdder elapsed;
+
+		/** time spent waiting for room in the next stage's queue, in ns, summed over every thread */
+		private final LongAdder blocked;
+
+		/**
+		 * Constructor
+		 * @param name stage name
+		 * @param unit what the stage's units are
+		 * @param threads number of threads
+		 */
+		private Counters(String name, String unit, int threads) {
+			this.name = name;
+			this.unit = unit;
+			this.threads = threads;
+			this.items = new LongAdder();
+			this.units = new LongAdder();
+			this.elapsed = new LongAdder();
+			this.blocked = new LongAdder();
+		}
+
+		/**
+		 * Returns the stage name
+		 * @return The stage name
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of items processed
+		 * @return The number of items processed
+		 */
+		public long items() {
+			return items.sum();
+		}
+
+		/**
+		 * Returns the number of units (e.g. bytes, words) processed
+		 * @return The number of units processed
+		 */
+		public long units() {
+			return units.sum();
+		}
+
+		/**
+		 * Returns the time spent processing items, in ns, summed over every thread, not counting time spent blocked
+		 * @return The time spent processing items, in ns
+		 */
+		public long busyNanos() {
+			return elapsed.sum() - blocked.sum(); // a stage only ever blocks while processing an item
+		}
+
+		/**
+		 * Returns the time spent waiting for room in the next stage's queue, in ns, summed over every thread
+		 * @return The time spent waiting for room in the next stage's queue, in ns
+		 */
+		public long blockedNanos() {
+			return blocked.sum();
+		}
+
+		@Override
+		public String toString() {
+			double busySeconds = busyNanos() / 1e9;
+			return String.format("%s (%d threads): %d items, %d %s, %.3f s busy (%.0f %s/s per thread), %.3f s blocked",
+					name, threads, items(), units(), unit, busySeconds, busySeconds > 0 ? units() / busySeconds : 0.0,
+					unit, blockedNanos() / 1e9);
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent one stage: threads that take items from a bounded queue and
+	 * process them, usually handing the results to the next stage
+	 * @author JRRed
+	 *
+	 * @param <T> type of the items this stage processes
+	 */
+	private abstract class Stage<T> {
+		/** items waiting to be processed */
+		final BlockingQueue<T> input;
+
+		/** marks the end of the input */
+		private final T end;
+
+		/** counters */
+		final Counters counters;
+
+		/** threads of the current run, or null if not running */
+		private WorkQueue workers;
+
+		/**
+		 * Constructor
+		 * @param name stage name
+		 * @param unit what the stage's units are
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 * @param end marks the end of the input
+		 */
+		private Stage(String name, String unit, int threads, int capacity, T end) {
+			this.input = new ArrayBlockingQueue<>(capacity);
+			this.end = end;
+			this.counters = new Counters(name, unit, threads);
+		}
+
+		/**
+		 * Processes one item
+		 * @param item item
+		 * @throws InterruptedException if interrupted while handing a result to the next stage
+		 */
+		protected abstract void process(T item) throws InterruptedException;
+
+		/**
+		 * Called instead of finishing {@link #process(Object)} when it throws a RuntimeException, so whatever the item
+		 * belongs to can be dropped instead of waited on. Does nothing by default.
+		 * @param item item that couldn't be processed
+		 * @throws InterruptedException if interrupted while handing the item to the next stage
+		 */
+		protected void discard(T item) throws InterruptedException {
+		}
+
+		/**
+		 * Starts this stage's threads
+		 */
+		void start() {
+			workers = new WorkQueue(counters.threads);
+			for (int i = 0; i < counters.threads; i++) {
+				workers.execute(this::work);
+			}
+		}
+
+		/**
+		 * Tells every thread there's no more input, and waits for them to finish what's left
+		 */
+		void close() {
+			try {
+				for (int i = 0; i < counters.threads; i++) {
+					input.put(end);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			workers.join();
+			workers = null;
+		}
+
+		/**
+		 * Processes items until the end of the input. An item that throws a RuntimeException is discarded, and the
+		 * thread carries on with the next one: if every thread of a stage died, the stages before it (and close())
+		 * would wait forever for room in its queue.
+		 */
+		private void work() {
+			try {
+				while (true) {
+					T item = input.take();
+					if (item == end) return;
+
+					long start = System.nanoTime();
+					try {
+						process(item);
+					}
+					catch (RuntimeException e) {
+						System.err.printf("ERROR - IndexingPipeline: the %s stage could not process an item%n", counters.name);
+						log.catching(Level.DEBUG, e);
+						discard(item);
+					}
+					counters.items.increment();
+					counters.elapsed.add(System.nanoTime() - start);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Hands an item to another stage, waiting for room in its queue if needed
+		 * @param <U> type of the item
+		 * @param next stage to hand the item to
+		 * @param item item
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		protected <U> void send(Stage<U> next, U item) throws InterruptedException {
+			if ( next.input.offer(item) ) return;
+
+			long start = System.nanoTime();
+			next.input.put(item);
+			counters.blocked.add(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent one file going through the pipeline, and to put its blocks
+	 * back in order once they've been stemmed
+	 * @author JRRed
+	 *
+	 */
+	private static class Document {
+		/** file path */
+		private final Path path;
+
+		/** local index the file's blocks are added to */
+		private final InvertedIndex localIndex;
+
+		/** stemmed blocks that came before a block that hasn't been stemmed yet, by sequence number */
+		private final Map<Integer, Block> waiting;
+
+		/** sequence number of the next block to add */
+		private int next;
+
+		/** position of the next block's first stem */
+		private int position;
+
+		/** whether any block couldn't be read or parsed */
+		private boolean failed;
+
+		/**
+		 * Constructor
+		 * @param path file path
+		 */
+		private Document(Path path) {
+			this.path = path;
+			this.localIndex = new InvertedIndex();
+			this.waiting = new HashMap<>();
+			this.next = 0;
+			this.position = 1;
+			this.failed = false;
+		}
+
+		/**
+		 * Adds a stemmed block, along with every waiting block that can now be added in order. Each block starts
+		 * right after the previous one's last position, so the file ends up indexed exactly like if it had been
+		 * parsed in one piece.
+		 * @param block stemmed block
+		 * @return Whether the last block was added, i.e. the file is done
+		 */
+		private synchronized boolean add(Block block) {
+			waiting.put(block.sequence, block);
+			boolean done = false;
+
+			for (Block current = waiting.remove(next); current != null; current = waiting.remove(next)) {
+				if (current.stems == null) failed = true;
+				if (!failed) {
+					localIndex.addDocument(path.toString(), current.stems, position);
+					position += current.stems.size();
+				}
+				done = current.last;
+				next++;
+			}
+			return done;
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent one block of a file as it goes through the pipeline. Each
+	 * stage replaces the block's contents with its own result; null means the block couldn't be read or parsed.
+	 * @author JRRed
+	 *
+	 */
+	private static class Block {
+		/** file the block belongs to */
+		private final Document document;
+
+		/** sequence number of the block within its file */
+		private final int sequence;
+
+		/** whether this is the file's last block */
+		private final boolean last;
+
+		/** bytes of the block, until tokenized */
+		private byte[] bytes;
+
+		/** words of the block, until stemmed */
+		private List<String> words;
+
+		/** stems of the block */
+		private List<String> stems;
+
+		/**
+		 * Constructor
+		 * @param document file the block belongs to
+		 * @param sequence sequence number of the block within its file
+		 * @param last whether this is the file's last block
+		 */
+		private Block(Document document, int sequence, boolean last) {
+			this.document = document;
+			this.sequence = sequence;
+			this.last = last;
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent the stage: "read each file as blocks of bytes that end at a
+	 * line break, and hand them to the tokenize stage"
+	 * @author JRRed
+	 *
+	 */
+	private class ReadStage extends Stage<Path> {
+		/**
+		 * Constructor
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 */
+		private ReadStage(int threads, int capacity) {
+			super("read", "bytes", threads, capacity, END_OF_FILES);
+		}
+
+		@Override
+		protected void process(Path path) throws InterruptedException {
+			Document document = new Document(path);
+			int sequence = 0;
+
+			try ( InputStream in = Files.newInputStream(path) ) {
+				byte[] carry = new byte[0]; // end of the last block read, after its last line break
+
+				while (true) {
+					byte[] read = in.readNBytes(BLOCK_SIZE);
+					boolean eof = read.length < BLOCK_SIZE;
+					byte[] data = carry.length == 0 ? read : concat(carry, read);
+					int cut = eof ? data.length : lastLineBreak(data) + 1;
+
+					if (cut == 0 && !eof) { // Case: no line break yet, so keep reading until there is one
+						carry = data;
+						continue;
+					}
+
+					Block block = new Block(document, sequence++, eof);
+					block.bytes = cut == data.length ? data : Arrays.copyOf(data, cut);
+					counters.units.add(cut);
+					send(tokenize, block);
+
+					if (eof) return;
+					carry = Arrays.copyOfRange(data, cut, data.length);
+				}
+			}
+			catch (IOException e) {
+				System.err.println("ERROR - IndexingPipeline.ReadStage");
+				send( tokenize, new Block(document, sequence, true) ); // no bytes, so the whole file is skipped
+			}
+		}
+
+		/**
+		 * Returns the index of the last line break in an array
+		 * @param data array
+		 * @return The index of the last line break in the array, or -1 if there isn't one
+		 */
+		private int lastLineBreak(byte[] data) {
+			for (int i = data.length - 1; i >= 0; i--) {
+				if (data[i] == '\n' || data[i] == '\r') return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns two arrays put together
+		 * @param first first array
+		 * @param second second array
+		 * @return A new array with first's bytes followed by second's
+		 */
+		private byte[] concat(byte[] first, byte[] second) {
+			byte[] data = Arrays.copyOf(first, first.length + second.length);
+			System.arraycopy(second, 0, data, first.length, second.length);
+			return data;
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent the stage: "decode each block as UTF-8, split it into words one
+	 * line at a time, and hand them to the stem stage"
+	 * @author JRRed
+	 *
+	 */
+	private class TokenizeStage extends Stage<Block> {
+		/**
+		 * Constructor
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 */
+		private TokenizeStage(int threads, int capacity) {
+			super("tokenize", "words", threads, capacity, END_OF_BLOCKS);
+		}
+
+		@Override
+		protected void process(Block block) throws InterruptedException {
+			if (block.bytes != null) {
+				try {
+					block.words = tokenize(block.bytes);
+					counters.units.add( block.words.size() );
+				}
+				catch (IOException e) {
+					System.err.println("ERROR - IndexingPipeline.TokenizeStage");
+				}
+				block.bytes = null;
+			}
+			send(stem, block);
+		}
+
+		@Override
+		protected void discard(Block block) throws InterruptedException {
+			block.bytes = null;
+			block.words = null; // so the stem stage leaves the stems null, and the file is dropped
+			send(stem, block);
+		}
+
+		/**
+		 * Splits a block's bytes into words
+		 * @param bytes bytes of the block
+		 * @return The words of the block, in order
+		 * @throws IOException if the bytes aren't valid UTF-8
+		 */
+		private List<String> tokenize(byte[] bytes) throws IOException {
+			CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder(); // reports malformed input, like Files.newBufferedReader
+			String text = decoder.decode( ByteBuffer.wrap(bytes) ).toString();
+			List<String> words = new ArrayList<>();
+			TextTokenizer tokenizer = TextTokenizer.get();
+			TextTokenizer.TokenConsumer addWord = word -> words.add( word.toString() );
+
+			int lineStart = 0;
+			for (int i = 0; i <= text.length(); i++) { // lines are tokenized one at a time, like BufferedReader.readLine() gives them
+				if ( i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r' ) continue;
+				if (i > lineStart) tokenizer.tokenize( text.substring(lineStart, i), addWord );
+				lineStart = i + 1;
+			}
+			return words;
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent the stage: "stem each block's words, and hand the stems to the
+	 * accumulate stage"
+	 * @author JRRed
+	 *
+	 */
+	private class StemStage extends Stage<Block> {
+		/**
+		 * Constructor
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 */
+		private StemStage(int threads, int capacity) {
+			super("stem", "stems", threads, capacity, END_OF_BLOCKS);
+		}
+
+		@Override
+		protected void process(Block block) throws InterruptedException {
+			if (block.words != null) {
+				Stemmer stemmer = StemCache.shared();
+				List<String> stems = new ArrayList<>( block.words.size() );
+				for (String word : block.words) {
+					stems.add( stemmer.stem(word).toString() );
+				}
+				block.stems = stems;
+				block.words = null;
+				counters.units.add( stems.size() );
+			}
+			send(accumulate, block);
+		}
+
+		@Override
+		protected void discard(Block block) throws InterruptedException {
+			block.words = null;
+			block.stems = null; // so the accumulate stage drops the file
+			send(accumulate, block);
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent the stage: "add each file's stemmed blocks, in order, to a local
+	 * index for that file, and hand it to the merge stage once the file is done"
+	 * @author JRRed
+	 *
+	 */
+	private class AccumulateStage extends Stage<Block> {
+		/**
+		 * Constructor
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 */
+		private AccumulateStage(int threads, int capacity) {
+			super("accumulate", "files", threads, capacity, END_OF_BLOCKS);
+		}
+
+		@Override
+		protected void process(Block block) throws InterruptedException {
+			Document document = block.document;
+			if ( !document.add(block) ) return;
+
+			counters.units.increment();
+			if (!document.failed) send(merge, document.localIndex);
+		}
+	}
+
+	/**
+	 * Class whose sole responsibility is to represent the stage: "combine each file's local index with the others"
+	 * @author JRRed
+	 *
+	 */
+	private class MergeStage extends Stage<InvertedIndex> {
+		/**
+		 * Constructor
+		 * @param threads number of threads
+		 * @param capacity capacity of the input queue
+		 */
+		private MergeStage(int threads, int capacity) {
+			super("merge", "indexes", threads, capacity, END_OF_INDEXES);
+		}
+
+		@Override
+		protected void process(InvertedIndex localIndex) {
+			reducer.add(localIndex);
+			counters.units.increment();
+		}
+	}
+}
@@ -1,29 +1,35 @@
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.IntBuffer;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
  * Class whose sole responsibility is to store data in an InvertedIndex format
- * InvertedIndex is a String to (Map: String to (TreeSet: Integer)) pair
+ * InvertedIndex is a String to (Map: String to (Set: Integer)) pair
  * @author JRRed
+ * @note Internally, locations are stored as dense int IDs (see {@link LocationDictionary}), and are
+ * only turned back into Strings when they're output
  *
  */
-public class InvertedIndex {
+public class InvertedIndex implements ModifiableIndex {
 	/**
-	 * Index data structure - "innermap" is TreeMap: String to (TreeSet: Integer)
+	 * Index data structure - "innermap" is TreeMap: location ID to (PositionSet: Integer)
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> map;
+	private final TreeMap<String, TreeMap<Integer, PositionSet>> map;
 	
-	/** map tracking how many strings are in each location */
-	private final Map<String, Integer> stringCount;
+	/** dictionary of location IDs, which also tracks how many strings are in each location */
+	private final LocationDictionary locations;
 	
 	/**
 	 * Constructor
@@ -32,8 +38,16 @@ public class InvertedIndex {
 	 * thing with data
 	 */
 	public InvertedIndex() {
-		map = new TreeMap<>();
-		stringCount = new TreeMap<>();
+		this( new LocationDictionary() );
+	}
+	
+	/**
+	 * Constructor for an index that uses a given location dictionary, which may be shared with other indexes
+	 * @param locations location dictionary
+	 */
+	InvertedIndex(LocationDictionary locations) {
+		this.map = new TreeMap<>();
+		this.locations = locations;
 	}
 	
 	/**
@@ -43,11 +57,107 @@ public class InvertedIndex {
 	 * @param position the string's "position" in the text file (1st string = pos. 1, nth string = pos. n)
 	 */
 	public void add(String str, String location, int position) {
-		map.putIfAbsent(str,  new TreeMap<>());
-		map.get(str).putIfAbsent(location,  new TreeSet<>());
-		map.get(str).get(location).add(position);
+		int id = locations.intern(location);
+		
+		map.computeIfAbsent(str, key -> new TreeMap<>())
+			.computeIfAbsent(id, key -> new PositionSet())
+			.add(position);
+		
+		locations.updateCount(id, position);
+	}
+	
+	/**
+	 * Adds every stem of a document at once. Positions are grouped by stem before the index is touched, so each
+	 * distinct stem is looked up once and the word count is updated once, instead of once per word.
+	 * @param location name of the document
+	 * @param stems stems of the document, in order
+	 * @param startPosition position of the first stem (usually 1)
+	 */
+	public void addDocument(String location, List<String> stems, int startPosition) {
+		if ( stems.isEmpty() ) return;
+		
+		int id = locations.intern(location);
+		addPostings( id, groupPositions(stems, startPosition) );
+		locations.updateCount(id, startPosition + stems.size() - 1);
+	}
+	
+	/**
+	 * Groups the positions of a document's stems by stem
+	 * @param stems stems of the document, in order
+	 * @param startPosition position of the first stem
+	 * @return map from each distinct stem to its positions
+	 */
+	static Map<String, PositionSet> groupPositions(List<String> stems, int startPosition) {
+		Map<String, PositionSet> grouped = new HashMap<>();
+		int position = startPosition;
+		
+		for (String stem : stems) {
+			grouped.computeIfAbsent(stem, key -> new PositionSet()).add(position++);
+		}
+		return grouped;
+	}
+	
+	/**
+	 * Adds the grouped positions of one location to this index. The position sets are shared, not copied.
+	 * @param id location ID
+	 * @param grouped map from stem to its positions in the location
+	 * @see #groupPositions(List, int)
+	 */
+	void addPostings(int id, Map<String, PositionSet> grouped) {
+		for (var entry : grouped.entrySet()) {
+			TreeMap<Integer, PositionSet> innerMap = map.computeIfAbsent(entry.getKey(), key -> new TreeMap<>());
+			PositionSet positions = innerMap.get(id);
+			
+			if (positions != null) {
+				positions.merge( entry.getValue() );
+			}
+			else {
+				innerMap.put( id, entry.getValue() );
+			}
+		}
+	}
+	
+	/**
+	 * Adds the positions of a string in one location. The position set is shared, not copied.
+	 * @param str string
+	 * @param id location ID
+	 * @param positions positions of the string in the location; should not already be in this index
+	 */
+	void addPositions(String str, int id, PositionSet positions) {
+		map.computeIfAbsent(str, key -> new TreeMap<>()).put(id, positions);
+	}
+	
+	/**
+	 * Removes every string position (and the word count) of some documents. Strings that aren't in any other
+	 * document are removed too.
+	 * @param locations names of the documents to remove; names that aren't in this index are ignored
+	 */
+	public void removeDocuments(Collection<String> locations) {
+		int[] idMap = this.locations.remove(locations);
+		if (idMap != null) remapLocations(idMap);
+	}
+	
+	/**
+	 * Changes the location ID of every posting, after locations were removed from the location dictionary
+	 * @param idMap array mapping each old location ID to its new one, or -1 if the location was removed
+	 * @see LocationDictionary#remove(Collection)
+	 */
+	void remapLocations(int[] idMap) {
+		Iterator<TreeMap<Integer, PositionSet>> it = map.values().iterator();
 		
-		stringCount.merge(location,  position, Math::max);
+		while ( it.hasNext() ) {
+			TreeMap<Integer, PositionSet> innerMap = it.next();
+			TreeMap<Integer, PositionSet> remapped = new TreeMap<>();
+			
+			for (var entry : innerMap.entrySet()) {
+				int id = idMap[ entry.getKey() ];
+				if (id >= 0) remapped.put( id, entry.getValue() );
+			}
+			innerMap.clear();
+			innerMap.putAll(remapped); // new IDs are in the same order as the old ones
+			
+			if ( innerMap.isEmpty() ) it.remove();
+		}
 	}
 	
 	/**
@@ -60,13 +170,19 @@ public class InvertedIndex {
 	}
 	
 	/**
-	 * Returns an unmodifiable view of all the locations that contain the given string
+	 * Returns an unmodifiable set of all the locations that contain the given string
 	 * @param str string
-	 * @return An unmodifiable view of all the locations containing the given string
+	 * @return An unmodifiable set of all the locations containing the given string
+	 * @note This is a sorted copy rather than a view, since locations are stored as IDs
 	 */
 	public Set<String> get(String str) {
-		return contains(str)
-				? Collections.unmodifiableSet( map.get(str).keySet() ) : Collections.emptySet();
+		if ( !contains(str) ) return Collections.emptySet();
+		
+		Set<String> names = new TreeSet<>();
+		for (int id : map.get(str).keySet()) {
+			names.add( locations.name(id) );
+		}
+		return Collections.unmodifiableSet(names);
 	}
 	
 	/**
@@ -77,15 +193,20 @@ public class InvertedIndex {
 	 */
 	public Set<Integer> get(String str, String location) {
 		return contains(str, location)
-				? Collections.unmodifiableSet( map.get(str).get(location) ) : Collections.emptySet();
+				? Collections.unmodifiableSet( map.get(str).get( locations.lookup(location) ) ) : Collections.emptySet();
 	}
 	
 	/**
-	 * Returns an unmodifiable view of the number of times each string appears in the index
-	 * @return An unmodifiable view of the number of times each string appears in the index
+	 * Returns an unmodifiable map of the number of times each string appears in the index
+	 * @return An unmodifiable map of the number of times each string appears in the index
+	 * @note This is a sorted copy rather than a view, since locations are stored as IDs
 	 */
 	public Map<String, Integer> getCounts() {
-		return Collections.unmodifiableMap(stringCount);
+		Map<String, Integer> counts = new TreeMap<>();
+		for (int id = 0; id < locations.size(); id++) {
+			counts.put( locations.name(id), locations.count(id) );
+		}
+		return Collections.unmodifiableMap(counts);
 	}
 
 	/**
@@ -93,7 +214,7 @@ public class InvertedIndex {
 	 * @return Size of counts map, which is the number of strings in this index
 	 */
 	public int countsSize() {
-		return stringCount.size();
+		return locations.size();
 	}
 	
 	/**
@@ -102,7 +223,8 @@ public class InvertedIndex {
 	 * @return How many times a given string appears in the index
 	 */
 	public int countsSize(String location) {
-		return stringCount.get(location) != null ? stringCount.get(location) : 0;
+		int id = locations.lookup(location);
+		return id != -1 ? locations.count(id) : 0;
 	}
 	
 	/**
@@ -121,7 +243,7 @@ public class InvertedIndex {
 	 * @return Whether the index contains a given string and a given file that holds that string
 	 */
 	public boolean contains(String str, String location) {
-		return contains(str) && map.get(str).get(location) != null;
+		return contains(str) && map.get(str).get( locations.lookup(location) ) != null;
 	}
 	
 	/**
@@ -132,7 +254,7 @@ public class InvertedIndex {
 	 * @return Whether the index contains a given position num, in a given file, that holds a given string
 	 */
 	public boolean contains(String str, String location, int position) {
-		return contains(str, location) && map.get(str).get(location).contains(position);
+		return contains(str, location) && map.get(str).get( locations.lookup(location) ).contains(position);
 	}
 	
 	/**
@@ -159,12 +281,12 @@ public class InvertedIndex {
 	 * @return The number of times a given string appears in a given location. If there's no mapping, returns 0.
 	 */
 	public int size(String str, String location) {
-		return contains(str, location) ? map.get(str).get(location).size() : 0;
+		return contains(str, location) ? map.get(str).get( locations.lookup(location) ).size() : 0;
 	}
 	
 	@Override
 	public String toString() {
-		return map.toString();
+		return toJson();
 	}
 	
 	/**
@@ -172,7 +294,7 @@ public class InvertedIndex {
 	 * @return A JSON version of this index, output to a string
 	 */
 	public String toJson() {
-		return SearchJsonWriter.asStringMapStringMapIntCollection(map);
+		return SearchJsonWriter.asLocationIdIndex(map, locations);
 	}
 	
 	/**
@@ -181,7 +303,17 @@ public class InvertedIndex {
 	 * @throws IOException In case IO Error occurs
 	 */
 	public void toJson(Path path) throws IOException {
-		SearchJsonWriter.asStringMapStringMapIntCollection(map, path);
+		SearchJsonWriter.asLocationIdIndex(map, locations, path);
+	}
+	
+	/**
+	 * Writes a binary version of this index to a path, which can be opened again with
+	 * {@link ImmutableInvertedIndex#fromBinary(Path)}
+	 * @param path path
+	 * @throws IOException In case IO Error occurs
+	 */
+	public void toBinary(Path path) throws IOException {
+		freeze().toBinary(path);
 	}
 	
 	/**
@@ -189,7 +321,7 @@ public class InvertedIndex {
 	 * @return A JSON version of the string count map, as a string
 	 */
 	public String countsToJson() {
-		return SimpleJsonWriter.asObject(stringCount);
+		return SimpleJsonWriter.asObject( getCounts() );
 	}
 	
 	/**
@@ -198,7 +330,7 @@ public class InvertedIndex {
 	 * @throws IOException In case IO Error occurs
 	 */
 	public void countsToJson(Path path) throws IOException {
-		SimpleJsonWriter.asObject(stringCount, path);
+		SimpleJsonWriter.asObject(getCounts(), path);
 	}
 	
 	// Note for next time: Make this one or two funcs
@@ -209,113 +341,221 @@ public class InvertedIndex {
 	public void attemptMergeWith(InvertedIndex other) {
 		if (this.equals(other)) return; // check that we're not trying to merge index with itself
 		
-		mergeMapWith(other);
-		other.stringCount.forEach((key, value) -> stringCount.merge(key, value, Math::max));
+		int[] idMap = mergeLocationsWith(other);
+		
+		for (String otherKey : other.map.keySet()) {
+			mergeStringWith(other, otherKey, idMap);
+		}
 	}
 	
 	/**
-	 * Merges map of another InvertedIndex with this one's
+	 * Adds the locations (and their counts) of another InvertedIndex to this one's dictionary
 	 * @param other other InvertedIndex
+	 * @return array mapping each of the other index's location IDs to this index's location IDs
 	 */
-	private void mergeMapWith(InvertedIndex other) {
+	int[] mergeLocationsWith(InvertedIndex other) {
+		return locations.mergeWith(other.locations);
+	}
+	
+	/**
+	 * Returns the dictionary this index resolves its location IDs with
+	 * @return The dictionary this index resolves its location IDs with
+	 */
+	LocationDictionary locations() {
+		return locations;
+	}
+	
+	/**
+	 * Merges the positions of one string from another InvertedIndex with this one's
+	 * @param other other InvertedIndex
+	 * @param str string in the other index
+	 * @param idMap array mapping the other index's location IDs to this index's location IDs
+	 * @see #mergeLocationsWith(InvertedIndex)
+	 */
+	void mergeStringWith(InvertedIndex other, String str, int[] idMap) {
+		mergePositions( map.computeIfAbsent(str, key -> new TreeMap<>()), other.map.get(str), idMap );
+	}
+	
+	/**
+	 * Merges positions of this index's map and other index's map
+	 * @param innerMap this index's inner map for a string
+	 * @param otherInnerMap other index's inner map for the same string
+	 * @param idMap array mapping the other index's location IDs to this index's location IDs
+	 */
+	private void mergePositions(TreeMap<Integer, PositionSet> innerMap, TreeMap<Integer, PositionSet> otherInnerMap,
+			int[] idMap) {
 		
-		Set<String> otherKeys = other.map.keySet();
-
-		for (String otherKey : otherKeys) {
-			if (map.containsKey(otherKey)) {
-				mergePositions(other, otherKey);
+		for (var otherEntry : otherInnerMap.entrySet()) {
+			int id = idMap[ otherEntry.getKey() ];
+			PositionSet positions = innerMap.get(id);
+			
+			if (positions != null) {
+				positions.merge( otherEntry.getValue() );
 			}
 			else {
-				map.put(otherKey, other.map.get(otherKey));
+				innerMap.put( id, otherEntry.getValue() );
 			}
 		}
 		
 	}
 	
 	/**
-	 * Merges positions of this index's map and other index's map
-	 * @param other other index
-	 * @param otherKey key in other index's keyset
+	 * Removes everything from this index
+	 */
+	public void clear() {
+		map.clear();
+		locations.clear();
+	}
+	
+	/**
+	 * Creates a read-only snapshot of this index, laid out in flat sorted arrays for faster searching.
+	 * This index is left unchanged.
+	 * @return A read-only snapshot of this index
+	 * @see ImmutableInvertedIndex
 	 */
-	private void mergePositions(InvertedIndex other, String otherKey) {
+	public ImmutableInvertedIndex freeze() {
+		return freeze(map, locations);
+	}
+	
+	/**
+	 * Adds every string in this index, mapped to its postings, to a map. The postings are shared, not copied.
+	 * @param postings map to add to
+	 */
+	void putPostingsInto(Map<String, Map<Integer, PositionSet>> postings) {
+		postings.putAll(map);
+	}
+	
+	/**
+	 * Creates a read-only snapshot of an index's data
+	 * @param map sorted map of strings to (location ID to positions)
+	 * @param locations dictionary used to resolve the location IDs
+	 * @return A read-only snapshot of the data
+	 */
+	static ImmutableInvertedIndex freeze(SortedMap<String, ? extends Map<Integer, PositionSet>> map,
+			LocationDictionary locations) {
+		// Snapshot location IDs are assigned in sorted order, so postings end up sorted by location name
+		Integer[] byName = new Integer[ locations.size() ];
+		for (int id = 0; id < byName.length; id++) {
+			byName[id] = id;
+		}
+		Arrays.sort(byName, (a, b) -> locations.name(a).compareTo( locations.name(b) ));
 		
-		TreeMap<String, TreeSet<Integer>> innerMap = map.get(otherKey);
-		TreeMap<String, TreeSet<Integer>> otherInnerMap = other.map.get(otherKey);
-		Set<String> otherPaths = otherInnerMap.keySet();
+		String[] names = new String[byName.length];
+		int[] counts = new int[byName.length];
+		int[] rank = new int[byName.length];
 		
-		for (String otherPath : otherPaths) {
-			TreeSet<Integer> positions = innerMap.get(otherPath);
-			TreeSet<Integer> otherPositions = otherInnerMap.get(otherPath);
+		for (int i = 0; i < byName.length; i++) {
+			names[i] = locations.name( byName[i] );
+			counts[i] = locations.count( byName[i] );
+			rank[ byName[i] ] = i;
+		}
+		
+		int numPostings = 0;
+		int numPositions = 0;
+		for (var innerMap : map.values()) {
+			numPostings += innerMap.size();
+			for (PositionSet positions : innerMap.values()) {
+				numPositions += positions.size();
+			}
+		}
+		
+		String[] terms = map.keySet().toArray(new String[0]);
+		int[] termOffsets = new int[terms.length + 1];
+		int[] docIds = new int[numPostings];
+		int[] positionOffsets = new int[numPostings + 1];
+		int[] positions = new int[numPositions];
+		
+		int posting = 0;
+		for (int term = 0; term < terms.length; term++) {
+			termOffsets[term] = posting;
 			
-			if (innerMap.containsKey(otherPath)) {
-				positions.addAll(otherPositions);
+			var innerMap = map.get( terms[term] );
+			PositionSet[] sets = innerMap.values().toArray(new PositionSet[0]);
+			long[] order = new long[sets.length]; // (rank << 32 | index), so sorting sorts by rank
+			int i = 0;
+			for (int id : innerMap.keySet()) {
+				order[i] = (long)rank[id] << 32 | i;
+				i++;
 			}
-			else {
-				innerMap.put(otherPath,  otherPositions);
+			Arrays.sort(order);
+			
+			for (long key : order) {
+				docIds[posting] = (int)(key >>> 32);
+				positionOffsets[posting + 1] = sets[ (int)key ].copyTo( positions, positionOffsets[posting] );
+				posting++;
 			}
 		}
+		termOffsets[terms.length] = posting;
 		
+		return new ImmutableInvertedIndex(terms, IntBuffer.wrap(termOffsets), IntBuffer.wrap(docIds),
+				IntBuffer.wrap(positionOffsets), IntBuffer.wrap(positions), names, counts);
 	}
 	
 	/**
-	 * Searches the index for each given stem and returns its results
+	 * Searches the index for each given stem and returns its best results
 	 * @param stems stems
-	 * @return Results from this search
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from this search, sorted
 	 */
-	public List<SearchResult> exactSearch(Set<String> stems) {
-		List<SearchResult> results = new ArrayList<>();
-		Map<String, SearchResult> lookup = new HashMap<>();
+	public List<SearchResult> exactSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get( locations.size() );
 	
 		for (String query : stems) {
 			if ( !contains(query) ) continue;
-			updateResults(query, lookup, results);
+			updateResults(query, scores);
 		}
-		Collections.sort(results);
-		return results;
+		return results(scores, limit);
 	}
 	
 	/**
-	 * Searches the index for each given partial stem in stems and returns its results
+	 * Searches the index for each given partial stem in stems and returns its best results
 	 * @param stems stems
-	 * @return Results from this search
-	 * @note X is defined as a partial stem of Y if X starts with Y. Note that common partial stems are counted
-	 * twice. E.g. if the partial stems would be ("yourselv", "yourself", "your", "yourself", "yourselv"), then
-	 * "yourselv" and "yourself" are each counted twice
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from this search, sorted
+	 * @see #partialSearch(Set)
 	 */
-
-	public List<SearchResult> partialSearch(Set<String> stems) {
-		List<SearchResult> results = new ArrayList<>();
-		Map<String, SearchResult> lookup = new HashMap<>();
+	public List<SearchResult> partialSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get( locations.size() );
 		
 		for (String query : stems) {
-			var it = map.tailMap(query).keySet().iterator();
-			String current;
-			
-			while (it.hasNext() && (current = it.next()).startsWith(query)) {
-				if ( !contains(current) ) continue;
-				updateResults(current,  lookup,  results);
-			}
+			updatePartialResults(query, scores);
 		}
-		Collections.sort(results);
-		return results;
+		return results(scores, limit);
 	}
 	
 	/**
-	 * Updates a list of search results based on a query string
+	 * Creates the best search results from the matches counted by a search
+	 * @param scores matches counted by the search, by location ID
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from the search, sorted
+	 */
+	List<SearchResult> results(ScoreAccumulator scores, int limit) {
+		return scores.results(locations::name, locations::count, limit);
+	}
+	
+	/**
+	 * Counts the matches of every string that starts with a partial query string
+	 * @param query partial query string
+	 * @param scores matches counted so far, by location ID. This function updates it.
+	 */
+	void updatePartialResults(String query, ScoreAccumulator scores) {
+		String successor = TermDictionary.successor(query); // every string starting with query sorts before this
+		var matches = successor != null ? map.subMap(query, successor) : map.tailMap(query);
+		
+		for (String current : matches.keySet()) {
+			updateResults(current, scores);
+		}
+	}
+	
+	/**
+	 * Counts the matches of a query string
 	 * @param query query string
-	 * @param lookup lookup map, used to make sure only one SearchResult per location per search exists
-	 * @param results list of search results. This function updates this list.
+	 * @param scores matches counted so far, by location ID. This function updates it.
 	 * @note Precondition: contains(query) == true (i.e. map.get(query) != null)
 	 */
-	private void updateResults(String query, Map<String, SearchResult> lookup, List<SearchResult> results) {
-		Set<String> locations = map.get(query).keySet();
-		for (String location : locations) {
-			if (!lookup.containsKey(location)) {
-				SearchResult result = new SearchResult(location);
-				lookup.put(location, result);
-				results.add(result);
-			}
-			lookup.get(location).update(query);
+	void updateResults(String query, ScoreAccumulator scores) {
+		for (var entry : map.get(query).entrySet()) {
+			scores.add( entry.getKey(), entry.getValue().size() );
 		}
 	}
 	
@@ -323,35 +563,39 @@ public class InvertedIndex {
 	 * Class whose sole responsibility is to hold data gained from searching the index
 	 * @author JRRed
 	 */
-	public class SearchResult implements Comparable<SearchResult> {
+	public static class SearchResult implements Comparable<SearchResult> {
 		
 		/** location where a match is found */
 		private final String location;
 		
+		/** number of words in this result's location */
+		private final int wordCount;
+		
 		/** number of matches in this result's location */
-		private int count;
+		private final int count;
 
 		/** This result's score, defined as the number of matches / the number of words in the result's location */
-		private double score;
+		private final double score;
 		
 		/**
 		 * Constructor
 		 * @param location location of stem
+		 * @param wordCount number of words in the location
+		 * @param count number of matches in the location
 		 */
-		private SearchResult(String location) {
+		SearchResult(String location, int wordCount, int count) {
 			this.location = location;
-			this.count = 0;
-			this.score = 0;
+			this.wordCount = wordCount;
+			this.count = count;
+			this.score = (double)count / wordCount;
 		}
 		
 		/**
-		 * Updates this SearchResult based on the string
-		 * @param str string
-		 * @note Precondition: contains(match, location) must return true
+		 * Returns this result's score
+		 * @return This result's score
 		 */
-		private void update(String str) {
-			this.count  += map.get(str).get(location).size();
-			this.score = (double)this.count / stringCount.get(location);
+		double getScore() {
+			return score;
 		}
 
 		@Override
@@ -410,7 +654,7 @@ public class InvertedIndex {
 					level + 1));
 			writer.write( SimpleJsonWriter.indentStringBy("Number of matches:\t" + count + ",",
 					level + 1));
-			writer.write( SimpleJsonWriter.indentStringBy("Total word count:\t" + stringCount.get(location),
+			writer.write( SimpleJsonWriter.indentStringBy("Total word count:\t" + wordCount,
 					level + 1));
 			writer.write( SimpleJsonWriter.indentStringBy("Score:\t"+ String.format("%.8f", score) + "\n",
 					level + 1));
@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class whose sole responsibility is to count durations in power-of-two buckets, so their distribution can be
+ * reported (e.g. as percentiles) without storing every duration. Bucket i counts durations from 2^(i-1) up to
+ * (but not including) 2^i ns, so a percentile is off by less than a factor of 2.
+ * <p>
+ * Safe to record into from many threads at once: every bucket is a LongAdder, so threads rarely contend.
+ * @author JRRed
+ *
+ */
+public class LatencyHistogram {
+	/** number of buckets: one for 0, and one for each bit of a long */
+	private static final int BUCKETS = Long.SIZE + 1;
+
+	/** count of each bucket */
+	private final LongAdder[] buckets;
+
+	/** sum of every duration, in ns */
+	private final LongAdder total;
+
+	/** longest duration, in ns */
+	private final LongAccumulator max;
+
+	/**
+	 * Constructor
+	 */
+	public LatencyHistogram() {
+		this.buckets = new LongAdder[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+		this.total = new LongAdder();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records one duration
+	 * @param nanos duration, in ns. Negative durations (e.g. from clock skew between cores) count as 0.
+	 */
+	public void record(long nanos) {
+		long safe = Math.max(nanos, 0);
+		buckets[Long.SIZE - Long.numberOfLeadingZeros(safe)].increment();
+		total.add(safe);
+		max.accumulate(safe);
+	}
+
+	/**
+	 * Returns the number of durations recorded
+	 * @return The number of durations recorded
+	 */
+	public long count() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the mean duration, in ns
+	 * @return The mean duration, in ns, or 0 if none were recorded
+	 */
+	public double mean() {
+		long count = count();
+		return count > 0 ? (double) total.sum() / count : 0;
+	}
+
+	/**
+	 * Returns the longest duration, in ns
+	 * @return The longest duration, in ns, or 0 if none were recorded
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns an upper bound of a percentile of the durations
+	 * @param percentile percentile, from 0 to 100
+	 * @return The end of the bucket the percentile falls in, in ns (but no more than {@link #max()}), or 0 if no
+	 * durations were recorded
+	 */
+	public long percentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		if (count == 0) return 0;
+
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) return Math.min( i == 0 ? 0 : i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1, max() );
+		}
+		return max();
+	}
+
+	/**
+	 * Formats a duration in the most readable unit
+	 * @param nanos duration, in ns
+	 * @return The duration, e.g. "850ns", "12.3us", "4.1ms" or "1.20s"
+	 */
+	public static String format(double nanos) {
+		if (nanos < 1e3) return String.format("%.0fns", nanos);
+		if (nanos < 1e6) return String.format("%.1fus", nanos / 1e3);
+		if (nanos < 1e9) return String.format("%.1fms", nanos / 1e6);
+		return String.format("%.2fs", nanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count %d, mean %s, p50 %s, p90 %s, p99 %s, max %s", count(), format( mean() ),
+				format( percentile(50) ), format( percentile(90) ), format( percentile(99) ), format( max() ));
+	}
+}
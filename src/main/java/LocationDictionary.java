@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Class whose sole responsibility is to assign dense int IDs to location names, and to
+ * remember how many words were found at each location. IDs start at 0 and are handed out
+ * in the order locations are first seen.
+ * <p>
+ * One dictionary can be shared by indexes that are updated from several threads at once (e.g. the shards of a
+ * {@link ShardedInvertedIndex}). Looking up IDs, names and counts, interning a location that was already seen, and
+ * updating a count never lock. Only handing out a new ID, removing and clearing lock, and those happen about once
+ * per document, not once per word. Names and counts are kept in fixed-size chunks that never move, so a count that's
+ * updated while the dictionary grows isn't lost.
+ * @author JRRed
+ *
+ */
+public class LocationDictionary {
+	/** log2 of the number of IDs in each chunk of names and counts */
+	private static final int CHUNK_SHIFT = 10;
+
+	/** number of IDs in each chunk of names and counts */
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/**
+	 * current contents. Replaced (rather than changed) whenever a location is added or removed, so every read sees
+	 * an ID map, names and counts that agree with each other.
+	 */
+	private volatile Table table;
+
+	/**
+	 * Constructor
+	 */
+	public LocationDictionary() {
+		this.table = new Table();
+	}
+
+	/**
+	 * Returns the ID of a location, assigning it a new one if it hasn't been seen before
+	 * @param location location
+	 * @return The ID of the location
+	 */
+	public int intern(String location) {
+		Integer id = table.ids.get(location);
+		return id != null ? id : add(location);
+	}
+
+	/**
+	 * Assigns a new ID to a location, unless another thread just did
+	 * @param location location
+	 * @return The ID of the location
+	 */
+	private synchronized int add(String location) {
+		Table current = table;
+		Integer id = current.ids.get(location);
+		if (id != null) return id;
+
+		table = current.append(location);
+		current.ids.put(location, current.size); // after publishing the new table, so whoever finds the ID can use it
+		return current.size;
+	}
+
+	/**
+	 * Returns the ID of a location, without assigning one
+	 * @param location location
+	 * @return The ID of the location, or -1 if it hasn't been seen before
+	 */
+	public int lookup(String location) {
+		Integer id = table.ids.get(location);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Returns the location name with a given ID
+	 * @param id ID
+	 * @return The location name with the given ID
+	 * @note Precondition: 0 &lt;= id &lt; size()
+	 */
+	public String name(int id) {
+		return table.name(id);
+	}
+
+	/**
+	 * Returns the word count of the location with a given ID
+	 * @param id ID
+	 * @return The word count of the location with the given ID
+	 * @note Precondition: 0 &lt;= id &lt; size()
+	 */
+	public int count(int id) {
+		return table.count(id);
+	}
+
+	/**
+	 * Updates the word count of the location with a given ID, if the given count is larger
+	 * @param id ID
+	 * @param count new word count (usually the position of the last word found)
+	 */
+	public void updateCount(int id, int count) {
+		AtomicIntegerArray chunk = table.counts[id >>> CHUNK_SHIFT];
+		int index = id & (CHUNK_SIZE - 1);
+		int old = chunk.get(index);
+
+		while ( count > old && !chunk.compareAndSet(index, old, count) ) {
+			old = chunk.get(index);
+		}
+	}
+
+	/**
+	 * Adds the locations (and their counts) of another dictionary to this one
+	 * @param other other dictionary
+	 * @return array mapping each of the other dictionary's IDs to this dictionary's IDs
+	 */
+	public int[] mergeWith(LocationDictionary other) {
+		Table theirs = other.table;
+		int[] idMap = new int[theirs.size];
+		
+		for (int otherId = 0; otherId < idMap.length; otherId++) {
+			idMap[otherId] = intern( theirs.name(otherId) );
+			updateCount( idMap[otherId], theirs.count(otherId) );
+		}
+		return idMap;
+	}
+
+	/**
+	 * Removes locations (and their counts) from this dictionary. The remaining locations are given new IDs, so IDs
+	 * stay dense; they keep the same order. Since IDs change, nothing else should be using this dictionary's IDs while
+	 * this runs (the indexes that share it hold their write locks).
+	 * @param locations locations to remove
+	 * @return array mapping each old ID to its new ID (or -1 if it was removed), or null if none of the locations
+	 * were in this dictionary
+	 */
+	public synchronized int[] remove(Collection<String> locations) {
+		Table current = table;
+		Set<String> removed = new HashSet<>();
+		for (String location : locations) {
+			if ( current.ids.containsKey(location) ) removed.add(location);
+		}
+		if ( removed.isEmpty() ) return null;
+		
+		Table remaining = new Table();
+		int[] idMap = new int[current.size];
+		
+		for (int oldId = 0; oldId < idMap.length; oldId++) {
+			String name = current.name(oldId);
+			if ( removed.contains(name) ) {
+				idMap[oldId] = -1;
+				continue;
+			}
+			idMap[oldId] = remaining.size;
+			remaining = remaining.append(name);
+			remaining.ids.put(name, idMap[oldId]);
+			remaining.counts[ idMap[oldId] >>> CHUNK_SHIFT ].set( idMap[oldId] & (CHUNK_SIZE - 1), current.count(oldId) );
+		}
+		table = remaining;
+		return idMap;
+	}
+
+	/**
+	 * Removes every location from this dictionary
+	 */
+	public synchronized void clear() {
+		table = new Table();
+	}
+
+	/**
+	 * Returns the number of locations in this dictionary
+	 * @return The number of locations in this dictionary
+	 */
+	public int size() {
+		return table.size;
+	}
+
+	@Override
+	public String toString() {
+		Table current = table;
+		List<String> names = new ArrayList<>(current.size);
+		for (int id = 0; id < current.size; id++) {
+			names.add( current.name(id) );
+		}
+		return names.toString();
+	}
+
+	/**
+	 * Class whose sole responsibility is to hold the contents of a dictionary at one point in time. A table is never
+	 * changed once it's published, apart from its counts and (in {@link #append(String)}) slots past its size, so
+	 * whoever reads it sees IDs, names and counts that agree with each other.
+	 * @author JRRed
+	 *
+	 */
+	private static class Table {
+		/** map from location name to its ID; shared with the tables appended to this one */
+		private final ConcurrentHashMap<String, Integer> ids;
+
+		/** chunks of location names, indexed by ID; chunks past the last one in use may be null */
+		private final String[][] names;
+
+		/** chunks of word counts, indexed by ID */
+		private final AtomicIntegerArray[] counts;
+
+		/** number of locations */
+		private final int size;
+
+		/**
+		 * Constructor for an empty table
+		 */
+		private Table() {
+			this( new ConcurrentHashMap<>(), new String[1][], new AtomicIntegerArray[1], 0 );
+		}
+
+		/**
+		 * Constructor
+		 * @param ids map from location name to its ID
+		 * @param names chunks of location names
+		 * @param counts chunks of word counts
+		 * @param size number of locations
+		 */
+		private Table(ConcurrentHashMap<String, Integer> ids, String[][] names, AtomicIntegerArray[] counts, int size) {
+			this.ids = ids;
+			this.names = names;
+			this.counts = counts;
+			this.size = size;
+		}
+
+		/**
+		 * Returns a table with one more location, whose ID is this table's size. The new table shares this one's ID
+		 * map (which the caller adds the location to) and chunks. Must only be called by the dictionary's lock holder.
+		 * @param location location
+		 * @return A table with one more location
+		 */
+		private Table append(String location) {
+			int chunk = size >>> CHUNK_SHIFT;
+			String[][] names = this.names;
+			AtomicIntegerArray[] counts = this.counts;
+
+			if (chunk == names.length) {
+				names = Arrays.copyOf(names, chunk * 2);
+				counts = Arrays.copyOf(counts, chunk * 2);
+			}
+			if (names[chunk] == null) {
+				names[chunk] = new String[CHUNK_SIZE];
+				counts[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			}
+			names[chunk][size & (CHUNK_SIZE - 1)] = location;
+			return new Table(ids, names, counts, size + 1);
+		}
+
+		/**
+		 * Returns the location name with a given ID
+		 * @param id ID
+		 * @return The location name with the given ID
+		 */
+		private String name(int id) {
+			return names[id >>> CHUNK_SHIFT][id & (CHUNK_SIZE - 1)];
+		}
+
+		/**
+		 * Returns the word count of the location with a given ID
+		 * @param id ID
+		 * @return The word count of the location with the given ID
+		 */
+		private int count(int id) {
+			return counts[id >>> CHUNK_SHIFT].get(id & (CHUNK_SIZE - 1));
+		}
+	}
+}
@@ -0,0 +1,45 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Basic interface for an inverted index that can be added to and removed from, on top of being searched. Implemented
+ * by {@link InvertedIndex} (and {@link ThreadSafeInvertedIndex}) and by {@link ShardedInvertedIndex}, so the
+ * collectors that fill an index don't need to know how it's stored or locked.
+ * @author JRRed
+ *
+ */
+public interface ModifiableIndex extends SearchableIndex {
+	/**
+	 * Adds a string with a given position num from a given location
+	 * @param str string
+	 * @param location name of place where str was found
+	 * @param position the string's "position" in the location (1st string = pos. 1, nth string = pos. n)
+	 */
+	void add(String str, String location, int position);
+
+	/**
+	 * Adds every stem of a document at once
+	 * @param location name of the document
+	 * @param stems stems of the document, in order
+	 * @param startPosition position of the first stem (usually 1)
+	 */
+	void addDocument(String location, List<String> stems, int startPosition);
+
+	/**
+	 * Removes every string position (and the word count) of some documents. Strings that aren't in any other
+	 * document are removed too.
+	 * @param locations names of the documents to remove; names that aren't in the index are ignored
+	 */
+	void removeDocuments(Collection<String> locations);
+
+	/**
+	 * Merges the contents of another inverted index into this index
+	 * @param other other inverted index
+	 */
+	void attemptMergeWith(InvertedIndex other);
+
+	/**
+	 * Removes everything from the index
+	 */
+	void clear();
+}
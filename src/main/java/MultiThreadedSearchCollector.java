@@ -1,4 +1,7 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Collection;
@@ -20,15 +23,15 @@ public class MultiThreadedSearchCollector implements SearchResultCollector {
 	/** Search function to use */
 	private final Function<Set<String>, Collection<InvertedIndex.SearchResult>> searchFunc;
 	
-	/** WorkQueue */
-	private final WorkQueue queue;
+	/** Work queue (or any other task executor) */
+	private final TaskExecutor queue;
 	
 	/**
 	 * Constructor
 	 * @param searchFunc search function to use
 	 * @param queue work queue
 	 */
-	public MultiThreadedSearchCollector(Function<Set<String>, Collection<InvertedIndex.SearchResult>> searchFunc, WorkQueue queue) {
+	public MultiThreadedSearchCollector(Function<Set<String>, Collection<InvertedIndex.SearchResult>> searchFunc, TaskExecutor queue) {
 		this.searchResultMap = new TreeMap<>();
 		this.searchFunc = searchFunc;
 		this.queue = queue;
@@ -36,13 +39,21 @@ public class MultiThreadedSearchCollector implements SearchResultCollector {
 	
 	@Override
 	public void search(Path path) throws IOException {
-		SearchResultCollector.super.search(path); // SearchResultCollector.super.methodName calls the static methodName() from SearchResultCollector, the "super" of this class's interface
-		queue.finish();
+		TaskExecutor.TaskGroup group = queue.newGroup(); // so only this file's searches are waited on, not e.g. a reindex sharing the queue
+		
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			
+			while ( (line = reader.readLine()) != null ) {
+				group.execute( new SearchLineTask(line), TaskExecutor.Priority.HIGH );
+			}
+		}
+		group.await();
 	}
 	
 	@Override
 	public void searchLine(String line) {
-		queue.execute( new SearchLineTask(line) );
+		queue.execute( new SearchLineTask(line), TaskExecutor.Priority.HIGH ); // ahead of e.g. a crawl sharing the queue
 	}
 	
 	@Override
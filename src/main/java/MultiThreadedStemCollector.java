@@ -1,5 +1,12 @@
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Multi-threaded implementation of WordStemCollector
@@ -7,37 +14,78 @@ import java.nio.file.Path;
  *
  */
 public class MultiThreadedStemCollector implements WordStemCollector {
-	/** ThreadSafeInvertedIndex to store stems into */
-	private final ThreadSafeInvertedIndex threadSafe;
+	/** Files bigger than this many bytes are split into chunks of about this size, which are parsed in parallel */
+	public static final long CHUNK_SIZE = 1 << 24;
 	
-	/** Work queue */
-	private final WorkQueue queue;
+	/** thread safe index to store stems into */
+	private final ModifiableIndex threadSafe;
+	
+	/** Work queue (or any other task executor) */
+	private final TaskExecutor queue;
+	
+	/** Combines the local indexes of every task, so only one merge into threadSafe is needed */
+	private final IndexReducer reducer;
+	
+	/** Whether large files are split into chunks. Only worth it when more than one chunk can be parsed at a time. */
+	private final boolean splitLargeFiles;
 	
 	/**
 	 * Constructor
-	 * @param threadSafe thread safe inverted index
+	 * @param threadSafe thread safe inverted index (e.g. a ShardedInvertedIndex)
 	 * @param queue work queue
 	 */
-	public MultiThreadedStemCollector(ThreadSafeInvertedIndex threadSafe, WorkQueue queue) {
+	public MultiThreadedStemCollector(ModifiableIndex threadSafe, TaskExecutor queue) {
 		this.threadSafe = threadSafe;
 		this.queue = queue;
+		this.reducer = new IndexReducer();
+		this.splitLargeFiles = queue.size() > 1 && Runtime.getRuntime().availableProcessors() > 1;
 	}
 	
 
 	@Override
 	public void collectStemsFrom(String seed) throws IOException {
-		WordStemCollector.super.collectStemsFrom(seed); // WordStemCollector.super.methodName calls the static methodName() from WordStemCollector, the "super" of this class's interface
-		queue.finish();
+		TaskExecutor.TaskGroup group = queue.newGroup(); // so only this collection's tasks are waited on, not e.g. searches sharing the queue
+		Path seedPath = Path.of(seed);
+		
+		if ( Files.isDirectory(seedPath) ) { // Case: Directory - walk each subdirectory in its own task, so files are parsed while the walk goes on
+			group.execute( new WalkDirectoryTask( seedPath, List.of() ) );
+		}
+		else if ( Files.isRegularFile(seedPath, java.nio.file.LinkOption.NOFOLLOW_LINKS) ) { // Case: one file
+			group.execute( parseTask(seedPath) );
+		}
+		group.await();
+		reducer.publishTo(threadSafe);
+	}
+	
+	@Override
+	public void parseFiles(Collection<Path> paths) throws IOException {
+		TaskExecutor.TaskGroup group = queue.newGroup();
+		for (Path path : paths) {
+			group.execute( parseTask(path) );
+		}
+		group.await();
+		reducer.publishTo(threadSafe);
 	}
 	
 	@Override
 	public void parseFile(Path path) throws IOException {
-		queue.execute( new ParseFileTask(path) );
+		queue.execute( parseTask(path) ); // Case: called by a WalkDirectoryTask - the new task joins its group
+	}
+	
+	/**
+	 * Returns the task that parses one file: large files are split into chunks, if that's worth it
+	 * @param path file path
+	 * @return The task that parses the file
+	 * @throws IOException in case of IO Error
+	 */
+	private Runnable parseTask(Path path) throws IOException {
+		if ( splitLargeFiles && Files.size(path) > CHUNK_SIZE ) return new SplitFileTask(path);
+		return new ParseFileTask(path);
 	}
 	
 	/**
-	 * Class whose sole responsibility is to represent the task: "parse one file, collect the stems into a local index, and merge its contents
-	 * into a common index"
+	 * Class whose sole responsibility is to represent the task: "parse one file, collect the stems into a local index, and hand it to
+	 * the reducer, which merges it with the other tasks' local indexes"
 	 * @author JRRed
 	 *
 	 */
@@ -61,11 +109,200 @@ public class MultiThreadedStemCollector implements WordStemCollector {
 		public void run() {
 			try {
 				WordStemCollector.parseFile(path, localIndex);
-				threadSafe.attemptMergeWith(localIndex);
+				reducer.add(localIndex);
 			}
 			catch (Exception e) {
 				System.err.println("ERROR - WordStemCollector.ParseFileTask");
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Class whose sole responsibility is to represent the task: "list one directory, hand each text file in it to
+	 * parseFile(), and walk each subdirectory in its own task". Like {@link TextFileFinder#find(Path)}, symbolic links
+	 * to directories are followed, but a link back to a directory that's already being walked is skipped.
+	 * @author JRRed
+	 *
+	 */
+	private class WalkDirectoryTask implements Runnable {
+		/** directory path */
+		private final Path directory;
+		
+		/** directories this one was found in, from the seed down */
+		private final List<Path> ancestors;
+		
+		/**
+		 * Constructor
+		 * @param directory directory path
+		 * @param ancestors directories this one was found in, from the seed down
+		 */
+		private WalkDirectoryTask(Path directory, List<Path> ancestors) {
+			this.directory = directory;
+			this.ancestors = ancestors;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				for (Path ancestor : ancestors) {
+					if ( Files.isSameFile(ancestor, directory) ) return; // Case: symbolic link loop
+				}
+				
+				List<Path> path = new ArrayList<>(ancestors);
+				path.add(directory);
+				
+				try ( DirectoryStream<Path> entries = Files.newDirectoryStream(directory) ) {
+					for (Path entry : entries) {
+						if ( Files.isDirectory(entry) ) {
+							queue.execute( new WalkDirectoryTask(entry, path) );
+						}
+						else if ( TextFileFinder.IS_TEXT.test(entry) ) {
+							parseFile(entry);
+						}
+					}
+				}
+			}
+			catch (Exception e) {
+				System.err.println("ERROR - WordStemCollector.WalkDirectoryTask");
+			}
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to represent the task: "split one large file into chunks, and parse each
+	 * chunk in its own task"
+	 * @author JRRed
+	 *
+	 */
+	private class SplitFileTask implements Runnable {
+		/** file path */
+		private final Path path;
+		
+		/**
+		 * Constructor
+		 * @param path path
+		 */
+		private SplitFileTask(Path path) {
+			this.path = path;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				long[] offsets = WordStemCollector.findChunks(path, CHUNK_SIZE);
+				ChunkedFile file = new ChunkedFile(path, offsets.length - 1);
+				
+				for (int i = 0; i < offsets.length - 1; i++) {
+					queue.execute( new ParseChunkTask(file, i, offsets[i], offsets[i + 1]) );
+				}
+			}
+			catch (Exception e) {
+				System.err.println("ERROR - WordStemCollector.SplitFileTask");
+			}
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to hold the stems of each chunk of one large file, until every chunk has been
+	 * parsed and the chunks' starting positions are known
+	 * @author JRRed
+	 *
+	 */
+	private class ChunkedFile {
+		/** file path */
+		private final Path path;
+		
+		/** stems of each chunk, or null if that chunk hasn't been parsed yet */
+		private final AtomicReferenceArray<List<String>> stems;
+		
+		/** number of chunks that haven't been parsed yet */
+		private final AtomicInteger remaining;
+		
+		/** whether any chunk couldn't be parsed */
+		private volatile boolean failed;
+		
+		/**
+		 * Constructor
+		 * @param path path
+		 * @param chunks number of chunks
+		 */
+		private ChunkedFile(Path path, int chunks) {
+			this.path = path;
+			this.stems = new AtomicReferenceArray<>(chunks);
+			this.remaining = new AtomicInteger(chunks);
+			this.failed = false;
+		}
+		
+		/**
+		 * Marks a chunk as done. The last chunk to be done adds every chunk's stems to a local index, in order, with
+		 * each chunk starting right after the previous one's last position. So the file ends up indexed exactly like
+		 * if it had been parsed in one piece. If any chunk failed, the whole file is skipped, like
+		 * {@link ParseFileTask} would skip it.
+		 * @param chunk chunk number
+		 * @param chunkStems stems of the chunk, or null if it couldn't be parsed
+		 */
+		private void finish(int chunk, List<String> chunkStems) {
+			if (chunkStems == null) failed = true;
+			stems.set(chunk, chunkStems);
+			if (remaining.decrementAndGet() > 0 || failed) return;
+			
+			InvertedIndex localIndex = new InvertedIndex();
+			int position = 1;
+			
+			for (int i = 0; i < stems.length(); i++) { // in order, so each stem's positions are only ever appended to
+				List<String> current = stems.get(i);
+				localIndex.addDocument(path.toString(), current, position);
+				position += current.size();
+				stems.set(i, null);
+			}
+			reducer.add(localIndex);
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to represent the task: "parse one chunk of a large file, and hand its stems
+	 * to the file's other chunks"
+	 * @author JRRed
+	 *
+	 */
+	private class ParseChunkTask implements Runnable {
+		/** file the chunk belongs to */
+		private final ChunkedFile file;
+		
+		/** chunk number */
+		private final int chunk;
+		
+		/** offset of the chunk */
+		private final long start;
+		
+		/** offset right after the chunk */
+		private final long end;
+		
+		/**
+		 * Constructor
+		 * @param file file the chunk belongs to
+		 * @param chunk chunk number
+		 * @param start offset of the chunk
+		 * @param end offset right after the chunk
+		 */
+		private ParseChunkTask(ChunkedFile file, int chunk, long start, long end) {
+			this.file = file;
+			this.chunk = chunk;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		public void run() {
+			List<String> stems = new ArrayList<>();
+			try {
+				WordStemCollector.parseChunk(file.path, start, end, stems);
+			}
+			catch (Exception e) {
+				System.err.println("ERROR - WordStemCollector.ParseChunkTask");
+				stems = null;
+			}
+			file.finish(chunk, stems);
+		}
+	}
+}
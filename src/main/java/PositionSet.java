@@ -0,0 +1,265 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Class whose sole responsibility is to store a sorted set of positions compactly. Positions are stored
+ * as the difference from the previous position (delta encoding), and each difference is written using as few
+ * bytes as possible (variable-byte encoding, 7 bits per byte). Since positions are almost always added in
+ * increasing order, adding one is just appending a few bytes to a growable array.
+ * @author JRRed
+ *
+ */
+public class PositionSet extends AbstractSet<Integer> {
+	/** Initial capacity (in bytes) of the encoded array */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** Encoded positions */
+	private byte[] bytes;
+
+	/** Number of bytes used in the encoded array */
+	private int length;
+
+	/** Number of positions in this set */
+	private int size;
+
+	/** Largest position in this set, or 0 if empty */
+	private int last;
+
+	/**
+	 * Constructor
+	 */
+	public PositionSet() {
+		this.bytes = new byte[INITIAL_CAPACITY];
+		this.length = 0;
+		this.size = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * Adds a position to this set
+	 * @param position position (should be positive)
+	 * @return true if the position wasn't already in this set
+	 */
+	public boolean add(int position) {
+		if (position > last) {
+			append(position);
+			return true;
+		}
+		if (contains(position)) return false;
+
+		rebuild( merge(toArray(this), new int[] {position}) );
+		return true;
+	}
+
+	/**
+	 * Adds all positions from another set to this one
+	 * @param other other set
+	 */
+	public void merge(PositionSet other) {
+		if (other.size == 0) return;
+
+		if (size == 0 || other.first() > last) { // Case: common case - other set's positions all come after this one's
+			PositionIterator it = other.new PositionIterator();
+			while (it.hasNext()) {
+				append( it.nextInt() );
+			}
+		}
+		else {
+			rebuild( merge(toArray(this), toArray(other)) );
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer && contains( ((Integer)o).intValue() );
+	}
+
+	/**
+	 * Returns whether this set contains a given position
+	 * @param position position
+	 * @return Whether this set contains the given position
+	 */
+	public boolean contains(int position) {
+		if (position > last || position <= 0) return false;
+
+		PositionIterator it = new PositionIterator();
+		while (it.hasNext()) {
+			int current = it.nextInt();
+			if (current >= position) return current == position;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes used to store this set's positions
+	 * @return The number of bytes used to store this set's positions
+	 */
+	public int encodedSize() {
+		return length;
+	}
+
+	/**
+	 * Returns the smallest position in this set
+	 * @return The smallest position in this set
+	 * @throws NoSuchElementException if this set is empty
+	 */
+	public int first() {
+		return new PositionIterator().nextInt();
+	}
+
+	/**
+	 * Returns the largest position in this set
+	 * @return The largest position in this set
+	 * @throws NoSuchElementException if this set is empty
+	 */
+	public int last() {
+		if (size == 0) throw new NoSuchElementException();
+		return last;
+	}
+
+	/**
+	 * Decodes this set's positions into an array
+	 * @param dest destination array
+	 * @param offset index in dest to start writing at
+	 * @return index in dest right after the last position written
+	 */
+	public int copyTo(int[] dest, int offset) {
+		PositionIterator it = new PositionIterator();
+		while (it.hasNext()) {
+			dest[offset++] = it.nextInt();
+		}
+		return offset;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new PositionIterator();
+	}
+
+	/**
+	 * Appends a position that's larger than every position in this set
+	 * @param position position
+	 */
+	private void append(int position) {
+		int delta = position - last;
+
+		if (length + 5 > bytes.length) { // an int never takes more than 5 bytes
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+		}
+		while ( (delta & ~0x7F) != 0 ) {
+			bytes[length++] = (byte)( (delta & 0x7F) | 0x80 );
+			delta >>>= 7;
+		}
+		bytes[length++] = (byte)delta;
+
+		last = position;
+		size++;
+	}
+
+	/**
+	 * Replaces this set's positions with the given ones
+	 * @param positions sorted, unique positions
+	 */
+	private void rebuild(int[] positions) {
+		length = 0;
+		size = 0;
+		last = 0;
+
+		for (int position : positions) {
+			append(position);
+		}
+	}
+
+	/**
+	 * Decodes a set into an array
+	 * @param set set
+	 * @return array of the set's positions, in order
+	 */
+	private static int[] toArray(PositionSet set) {
+		int[] positions = new int[set.size];
+		PositionIterator it = set.new PositionIterator();
+
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = it.nextInt();
+		}
+		return positions;
+	}
+
+	/**
+	 * Merges two sorted arrays, dropping duplicates
+	 * @param a first array
+	 * @param b second array
+	 * @return merged array
+	 */
+	private static int[] merge(int[] a, int[] b) {
+		int[] merged = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+
+		while (i < a.length || j < b.length) {
+			int next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+			if (i < a.length && a[i] == next) i++;
+			if (j < b.length && b[j] == next) j++;
+			merged[k++] = next;
+		}
+		return Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * Iterator that decodes positions one at a time
+	 * @author JRRed
+	 *
+	 */
+	private class PositionIterator implements Iterator<Integer> {
+		/** Index of the next byte to decode */
+		private int offset;
+
+		/** Last position decoded */
+		private int current;
+
+		/**
+		 * Constructor
+		 */
+		private PositionIterator() {
+			this.offset = 0;
+			this.current = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return offset < length;
+		}
+
+		@Override
+		public Integer next() {
+			return nextInt();
+		}
+
+		/**
+		 * {@link #next()} without boxing
+		 * @return next position
+		 * @throws NoSuchElementException if there are no more positions
+		 */
+		private int nextInt() {
+			if ( !hasNext() ) throw new NoSuchElementException();
+
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[offset++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ( (b & 0x80) != 0 );
+
+			current += delta;
+			return current;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Class whose sole responsibility is to add up the matches of one search, per location. Match counts are kept in an
+ * int array indexed by location ID, along with a list of the IDs that have been touched, so nothing is allocated
+ * per match and resetting only clears the touched entries. Scores are only computed, and SearchResults only created,
+ * once every match has been counted.
+ * <p>
+ * Each thread reuses its own accumulator (see {@link #get(int)}), so concurrent searches don't share state and
+ * don't allocate new arrays once they've grown to the number of locations.
+ * @author JRRed
+ *
+ */
+public class ScoreAccumulator {
+	/** accumulator of each thread */
+	private static final ThreadLocal<ScoreAccumulator> CURRENT = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+	/** number of matches at each location, indexed by location ID */
+	private int[] counts;
+
+	/** IDs of every location with at least one match, in the order they were first touched */
+	private int[] touched;
+
+	/** number of IDs in touched */
+	private int size;
+
+	/**
+	 * Constructor
+	 */
+	private ScoreAccumulator() {
+		this.counts = new int[16];
+		this.touched = new int[16];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the current thread's accumulator, emptied and with room for a number of locations
+	 * @param capacity number of locations (location IDs are 0 to capacity - 1)
+	 * @return The current thread's accumulator
+	 * @note Only one search per thread should use the accumulator at a time
+	 */
+	public static ScoreAccumulator get(int capacity) {
+		ScoreAccumulator scores = CURRENT.get();
+		scores.reset();
+		scores.ensureCapacity(capacity);
+		return scores;
+	}
+
+	/**
+	 * Makes sure this accumulator has room for a number of locations
+	 * @param capacity number of locations
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > counts.length) {
+			int length = Math.max(capacity, counts.length * 2);
+			counts = Arrays.copyOf(counts, length);
+			touched = Arrays.copyOf(touched, length);
+		}
+	}
+
+	/**
+	 * Adds matches to a location
+	 * @param id location ID
+	 * @param matches number of matches
+	 * @note Precondition: id is less than the capacity given to {@link #get(int)} or {@link #ensureCapacity(int)}
+	 */
+	public void add(int id, int matches) {
+		if (counts[id] == 0) touched[size++] = id;
+		counts[id] += matches;
+	}
+
+	/**
+	 * Returns the number of locations with at least one match
+	 * @return The number of locations with at least one match
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Creates the search results of every location with a match, keeping only the best ones. When there's a limit,
+	 * only a heap of the best results seen so far is kept (worst on top), so this takes O(n log limit) instead of
+	 * O(n log n), and a SearchResult is only created for a location whose score could make it into the heap.
+	 * @param names location name of each ID
+	 * @param wordCounts word count of each ID
+	 * @param limit maximum number of results to keep; 0 or less means no limit
+	 * @return The best results, sorted by {@link InvertedIndex.SearchResult#compareTo(InvertedIndex.SearchResult)}
+	 */
+	public List<InvertedIndex.SearchResult> results(IntFunction<String> names, IntUnaryOperator wordCounts, int limit) {
+		if (limit <= 0 || size <= limit) {
+			List<InvertedIndex.SearchResult> results = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				results.add( result(touched[i], names, wordCounts) );
+			}
+			Collections.sort(results);
+			return results;
+		}
+
+		PriorityQueue<InvertedIndex.SearchResult> best = new PriorityQueue<>( limit + 1, Collections.reverseOrder() );
+		for (int i = 0; i < size; i++) {
+			int id = touched[i];
+
+			if (best.size() == limit) {
+				double score = (double)counts[id] / wordCounts.applyAsInt(id);
+				if ( score < best.peek().getScore() ) continue; // Case: can't beat the worst kept result - skip creating it
+			}
+
+			InvertedIndex.SearchResult result = result(id, names, wordCounts);
+			if (best.size() < limit) {
+				best.add(result);
+			}
+			else if ( result.compareTo(best.peek()) < 0 ) {
+				best.poll();
+				best.add(result);
+			}
+		}
+
+		List<InvertedIndex.SearchResult> top = new ArrayList<>(best);
+		Collections.sort(top);
+		return top;
+	}
+
+	/**
+	 * Creates the search result of one location
+	 * @param id location ID
+	 * @param names location name of each ID
+	 * @param wordCounts word count of each ID
+	 * @return The search result of the location
+	 */
+	private InvertedIndex.SearchResult result(int id, IntFunction<String> names, IntUnaryOperator wordCounts) {
+		return new InvertedIndex.SearchResult( names.apply(id), wordCounts.applyAsInt(id), counts[id] );
+	}
+
+	/**
+	 * Clears every touched location
+	 */
+	private void reset() {
+		for (int i = 0; i < size; i++) {
+			counts[ touched[i] ] = 0;
+		}
+		size = 0;
+	}
+}
@@ -1,6 +1,16 @@
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Class whose sole responsibility is to represent a search engine, with an InvertedIndex for storing data, a WordStemCollector for populating that index,
@@ -9,14 +19,28 @@ import java.time.Instant;
  *
  */
 public class SearchEngine {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
 	
 	/**
 	 * Seed string; usually a file path, directory path, or URL. This search engine will start parsing from this seed string.
 	 */
 	private final String seed;
 	
-	/** Inverted index for storing data */
-	private final InvertedIndex index;
+	/** Inverted index for storing data, or null if this search engine only searches a loaded snapshot */
+	private final ModifiableIndex index;
+	
+	/**
+	 * Index used for searching and output. Starts off as the same index as {@link #index} (if there is one), and is
+	 * replaced with a frozen snapshot of it once stems have been collected.
+	 */
+	private volatile SearchableIndex snapshot;
+	
+	/** Whether to search with exact stems (true) or partial stems (false) */
+	private final boolean exact;
+	
+	/** Maximum number of results to keep per search; 0 or less means no limit */
+	private final int limit;
 	
 	/** StemCrawler for collecting stems and storing them into the index */
 	private final StemCrawler collector;
@@ -24,23 +48,34 @@ public class SearchEngine {
 	/** SearchResultCollector to search index with */
 	private final SearchResultCollector searcher;
 
-	/** Work queue. Will be shared among all the data structures this search engine uses */
-	private final WorkQueue queue;
+	/** Work queue (or any other task executor). Will be shared among all the data structures this search engine uses */
+	private final TaskExecutor queue;
+	
+	/** Watcher that keeps the index up to date with the seed directory, or null if it isn't being watched */
+	private DirectoryWatcher watcher;
 	
 	/**
 	 * Constructor
 	 * @param seed seed
-	 * @param index index
+	 * @param index index, or null if this search engine only searches snapshot
+	 * @param snapshot index to search until stems have been collected (usually index itself)
 	 * @param queue Work Queue
 	 * @param collector Stem Crawler
-	 * @param searcher Search Result Collector
+	 * @param exact whether to search with exact stems
+	 * @param limit maximum number of results to keep per search; 0 or less means no limit
+	 * @param searcherFactory creates the Search Result Collector, given the search function it should use
 	 */
-	private SearchEngine(String seed, InvertedIndex index, WorkQueue queue, StemCrawler collector, SearchResultCollector searcher) {
+	private SearchEngine(String seed, ModifiableIndex index, SearchableIndex snapshot, TaskExecutor queue, StemCrawler collector,
+			boolean exact, int limit,
+			Function<Function<Set<String>, Collection<InvertedIndex.SearchResult>>, SearchResultCollector> searcherFactory) {
 		this.seed = seed;
 		this.index = index;
+		this.snapshot = snapshot;
 		this.queue = queue;
 		this.collector = collector;
-		this.searcher = searcher;
+		this.exact = exact;
+		this.limit = limit;
+		this.searcher = searcherFactory.apply(this::search);
 		
 	}
 	
@@ -50,6 +85,14 @@ public class SearchEngine {
 	 *
 	 */
 	public static class Factory {
+		/** "-executor" value for a {@link WorkQueue} */
+		public static final String WORK_QUEUE = "workqueue";
+		
+		/** "-executor" value for a fork/join pool */
+		public static final String FORK_JOIN = "forkjoin";
+		
+		/** "-executor" value for a new virtual thread per task */
+		public static final String VIRTUAL = "virtual";
 		
 		/**
 		 * Creates a Search Engine, built based off what's in the ArgumentMap
@@ -57,10 +100,19 @@ public class SearchEngine {
 		 * @return a Search Engine, built based off what's in the ArgumentMap
 		 */
 		public static SearchEngine create(ArgumentMap argMap) {
+			if (argMap.hasFlag("-load")) {
+				try {
+					return createLoaded(argMap);
+				}
+				catch (IOException e) {
+					System.err.printf("Error: Could not load binary index from path: %s%n", argMap.getPath("-load"));
+				}
+			}
+			
 			if (argMap.hasFlag("-html")) {
 				return createWeb(argMap);
 			}
-			else if (argMap.hasFlag("-threads")) {
+			else if ( argMap.hasFlag("-threads") || argMap.hasFlag("-pipeline") || argMap.hasFlag("-executor") ) {
 				return createMultiThreaded(argMap);
 			}
 			return createSingleThreaded(argMap);
@@ -68,39 +120,132 @@ public class SearchEngine {
 		}
 		
 		/**
-		 * Creates a Search Engine with a web crawler. Multi-threaded by default.
+		 * Creates the task executor a multi-threaded search engine runs on, with as many threads as the "-threads"
+		 * flag says. The "-executor" flag picks the backend: "workqueue" (the default), "forkjoin" or "virtual".
+		 * A work queue holds at most as many pending tasks as the "-capacity" flag says (no maximum by default), and
+		 * the "-backpressure" flag says what happens once it's full: "block" (the default), "caller_runs" or "reject".
+		 * @param argMap ArgumentMap
+		 * @return The task executor a multi-threaded search engine runs on
+		 */
+		private static TaskExecutor createExecutor(ArgumentMap argMap) {
+			int threads = argMap.getInteger("-threads", WorkQueue.DEFAULT);
+			String backend = argMap.getString("-executor", WORK_QUEUE);
+			
+			switch (backend.toLowerCase()) {
+				case FORK_JOIN:
+					return ExecutorServiceAdapter.forkJoin(threads);
+				case VIRTUAL:
+					return ExecutorServiceAdapter.virtual(threads);
+				case WORK_QUEUE:
+					return createWorkQueue(argMap, threads);
+				default:
+					System.err.printf("ERROR - Unknown executor: %s; using %s instead%n", backend, WORK_QUEUE);
+					return createWorkQueue(argMap, threads);
+			}
+		}
+		
+		/**
+		 * Creates a work queue, bounded if the "-capacity" flag is given
+		 * @param argMap ArgumentMap
+		 * @param threads number of worker threads
+		 * @return A work queue
+		 */
+		private static WorkQueue createWorkQueue(ArgumentMap argMap, int threads) {
+			String policy = argMap.getString( "-backpressure", WorkQueue.Backpressure.BLOCK.name() );
+			WorkQueue.Backpressure backpressure;
+			try {
+				backpressure = WorkQueue.Backpressure.valueOf( policy.toUpperCase().replace('-', '_') );
+			}
+			catch (IllegalArgumentException e) {
+				System.err.printf("ERROR - Unknown backpressure policy: %s; using %s instead%n", policy, WorkQueue.Backpressure.BLOCK);
+				backpressure = WorkQueue.Backpressure.BLOCK;
+			}
+			return new WorkQueue(threads, true, argMap.getInteger("-capacity", 0), backpressure);
+		}
+		
+		/**
+		 * Creates a Search Engine that searches a binary index file instead of collecting stems.
+		 * Multi-threaded if the "-threads" (or "-executor") flag is given.
+		 * @param argMap ArgumentMap
+		 * @return A Search Engine that searches a binary index file
+		 * @throws IOException if the index file can't be opened
+		 * @see ImmutableInvertedIndex#fromBinary(Path)
+		 */
+		private static SearchEngine createLoaded(ArgumentMap argMap) throws IOException {
+			Path path = argMap.getPath( "-load", Path.of("index.bin") );
+			ImmutableInvertedIndex loaded = ImmutableInvertedIndex.fromBinary(path);
+			
+			if ( !argMap.hasFlag("-threads") && !argMap.hasFlag("-executor") ) {
+				return new SearchEngine(path.toString(), null, loaded, null, seed -> {}, argMap.hasFlag("-exact"),
+						argMap.getInteger("-limit", 0), SearchResultCollector.Default::new);
+			}
+			
+			TaskExecutor queue = createExecutor(argMap);
+			return new SearchEngine(path.toString(), null, loaded, queue, seed -> {}, argMap.hasFlag("-exact"),
+					argMap.getInteger("-limit", 0), searchFunc -> new MultiThreadedSearchCollector(searchFunc, queue));
+		}
+		
+		/**
+		 * Creates a Search Engine with a web crawler. Multi-threaded by default. The index is split into as many
+		 * shards as there are worker threads, unless the "-shards" flag says otherwise. If the "-virtual" flag is
+		 * given, pages are fetched on their own threads (virtual ones, on Java 21 or later), up to the given number
+		 * at once, and only parsed on the work queue.
 		 * @param argMap ArgumentMap
 		 * @return A Search Engine with a web crawler, multi-threaded by default.
 		 */
 		private static SearchEngine createWeb(ArgumentMap argMap) {
-			ThreadSafeInvertedIndex threadSafe = new ThreadSafeInvertedIndex();
-			WorkQueue queue = new WorkQueue(argMap.getInteger("-threads", WorkQueue.DEFAULT));
+			TaskExecutor queue = createExecutor(argMap);
+			ShardedInvertedIndex threadSafe = new ShardedInvertedIndex(argMap.getInteger("-shards", queue.size()));
 			
 			return new SearchEngine(
 					argMap.getString("-html"),
 					threadSafe,
+					threadSafe,
 					queue,
-					new WebCrawler(threadSafe, queue, argMap.getInteger("-max", 1)),
-					new MultiThreadedSearchCollector(argMap.hasFlag("-exact") ? threadSafe::exactSearch : threadSafe::partialSearch,
-							queue));
+					new WebCrawler( threadSafe, queue, argMap.getInteger("-max", 1),
+							argMap.hasFlag("-virtual") ? argMap.getInteger("-virtual", WebCrawler.DEFAULT_FETCHES) : 0 ),
+					argMap.hasFlag("-exact"),
+					argMap.getInteger("-limit", 0),
+					searchFunc -> new MultiThreadedSearchCollector(searchFunc, queue));
 		}
 		
 		/**
-		 * Creates a multi-threaded search engine.
+		 * Creates a multi-threaded search engine. The index is split into as many shards as there are worker
+		 * threads, unless the "-shards" flag says otherwise. If the "-pipeline" flag is given, files are parsed by an
+		 * {@link IndexingPipeline}, whose stage thread counts can be given as "read,tokenize,stem,accumulate,merge".
 		 * @param argMap ArgumentMap
 		 * @return A multi-threaded search engine
 		 */
 		private static SearchEngine createMultiThreaded(ArgumentMap argMap) {
-			ThreadSafeInvertedIndex threadSafe = new ThreadSafeInvertedIndex();
-			WorkQueue queue = new WorkQueue(argMap.getInteger("-threads", WorkQueue.DEFAULT));
+			TaskExecutor queue = createExecutor(argMap);
+			ShardedInvertedIndex threadSafe = new ShardedInvertedIndex(argMap.getInteger("-shards", queue.size()));
 			
 			return new SearchEngine(
 					argMap.getString("-text"),
 					threadSafe,
+					threadSafe,
 					queue,
-					new MultiThreadedStemCollector(threadSafe, queue),
-					new MultiThreadedSearchCollector(argMap.hasFlag("-exact") ? threadSafe::exactSearch : threadSafe::partialSearch,
-							queue));
+					textCollector( argMap, threadSafe, argMap.hasFlag("-pipeline")
+						? new IndexingPipeline( threadSafe, IndexingPipeline.parseThreads(argMap.getString("-pipeline"), queue.size()),
+								IndexingPipeline.DEFAULT_CAPACITY )
+						: new MultiThreadedStemCollector(threadSafe, queue) ),
+					argMap.hasFlag("-exact"),
+					argMap.getInteger("-limit", 0),
+					searchFunc -> new MultiThreadedSearchCollector(searchFunc, queue));
+		}
+		
+		/**
+		 * Returns the collector to use for text files. If the "-incremental" flag is given, a saved index is
+		 * updated instead of building one from scratch.
+		 * @param argMap ArgumentMap
+		 * @param index index the collector stores stems into
+		 * @param collector collector that parses text files into index
+		 * @return The collector to use for text files
+		 * @see IncrementalStemCollector
+		 */
+		private static WordStemCollector textCollector(ArgumentMap argMap, ModifiableIndex index, WordStemCollector collector) {
+			if ( !argMap.hasFlag("-incremental") ) return collector;
+			return new IncrementalStemCollector( index, collector, argMap.getPath("-incremental", Path.of("index.bin")) );
 		}
 		
 		/**
@@ -114,18 +259,106 @@ public class SearchEngine {
 			return new SearchEngine(
 					argMap.getString("-text"),
 					index,
+					index,
 					null,
-					new WordStemCollector.Default(index),
-					new SearchResultCollector.Default(argMap.hasFlag("-exact") ? index::exactSearch : index::partialSearch));
+					textCollector( argMap, index, new WordStemCollector.Default(index) ),
+					argMap.hasFlag("-exact"),
+					argMap.getInteger("-limit", 0),
+					SearchResultCollector.Default::new);
 		}
 	}
 	
 	/**
-	 * Gets stems based off the seed
+	 * Gets stems based off the seed. Once every stem has been collected, the index is frozen into a read-only
+	 * snapshot that all searches and output use, and the original index is cleared to free up its memory.
 	 * @throws IOException in case of IO Error
+	 * @see InvertedIndex#freeze()
 	 */
 	public void getStems() throws IOException {
 		collector.collectStemsFrom(seed);
+		if (index == null) return; // Case: only searching a snapshot (e.g. loaded from a binary file)
+		
+		snapshot = index.freeze(); // publish before clearing, so concurrent searches never see an empty index
+		index.clear();
+	}
+	
+	/**
+	 * Starts watching the seed directory, so files that are created, modified or deleted under it are reindexed in
+	 * the background (through the work queue, if there is one). Each batch of changes is published as a new frozen
+	 * snapshot, so searches see it about one refresh interval after the first change, and never wait on an update
+	 * that's still in progress. The index is kept alongside the snapshot from then on, so it can be updated.
+	 * @param refresh time to wait after a batch's first change before reindexing it
+	 * @throws IOException if the seed directory can't be watched
+	 * @throws UnsupportedOperationException if the seed isn't a directory of text files
+	 * @see DirectoryWatcher
+	 */
+	public synchronized void watch(Duration refresh) throws IOException {
+		if ( !(collector instanceof WordStemCollector) || !Files.isDirectory( Path.of(seed) ) ) {
+			throw new UnsupportedOperationException("Only a directory of text files can be watched: " + seed);
+		}
+		if (watcher != null) return;
+		
+		SearchableIndex current = snapshot;
+		if (current != index) index.attemptMergeWith( current.freeze().thaw() ); // Case: getStems() cleared index
+		
+		watcher = new DirectoryWatcher(Path.of(seed), refresh, this::refresh);
+		watcher.start();
+		log.info("Watching {} for changes, refreshing every {} ms", seed, refresh.toMillis());
+	}
+	
+	/**
+	 * Reindexes a batch of changed files, then publishes the updated index as a new frozen snapshot. Only ever called
+	 * by the watcher's thread, one batch at a time.
+	 * @param changed changed files; the ones that no longer exist were deleted
+	 */
+	private void refresh(Set<Path> changed) {
+		List<Path> existing = changed.stream().filter(TextFileFinder.IS_TEXT).collect(Collectors.toList());
+		
+		try {
+			index.removeDocuments( changed.stream().map(Path::toString).collect(Collectors.toList()) );
+			((WordStemCollector) collector).parseFiles(existing);
+		}
+		catch (IOException e) {
+			System.err.printf("ERROR - Could not reindex changed files under: %s%n", seed);
+		}
+		
+		snapshot = index.freeze();
+		log.info("Refreshed index: {} files added or modified, {} deleted", existing.size(),
+				changed.size() - existing.size());
+	}
+	
+	/**
+	 * If the seed directory is being watched, waits until the watcher stops. Should be called before
+	 * {@link #joinQueue()}, since the watcher reindexes through the queue.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void joinWatcher() throws InterruptedException {
+		DirectoryWatcher current;
+		synchronized (this) {
+			current = watcher;
+		}
+		if (current != null) current.join();
+	}
+	
+	/**
+	 * Searches the engine's current index with a set of stems
+	 * @param stems stems
+	 * @return Results from this search
+	 */
+	private List<InvertedIndex.SearchResult> search(Set<String> stems) {
+		return search(stems, exact, limit);
+	}
+	
+	/**
+	 * Searches the engine's current index with a set of stems
+	 * @param stems stems
+	 * @param exact whether to search with exact stems
+	 * @param limit maximum number of results to keep; 0 or less means no limit
+	 * @return Results from this search
+	 */
+	private List<InvertedIndex.SearchResult> search(Set<String> stems, boolean exact, int limit) {
+		SearchableIndex current = snapshot;
+		return exact ? current.exactSearch(stems, limit) : current.partialSearch(stems, limit);
 	}
 	
 	/**
@@ -153,13 +386,39 @@ public class SearchEngine {
 		searcher.searchLine(line);
 	}
 	
+	/**
+	 * Searches the engine's index with one line of queries, independently of any other search, and returns only
+	 * this search's results. Safe to call from many threads at once (e.g. one per web request) once
+	 * {@link #getStems()} has finished.
+	 * @param line line of queries
+	 * @param exact whether to search with exact stems
+	 * @param limit maximum number of results to keep; 0 or less means no limit
+	 * @param start Instant for timing how long this search takes
+	 * @return This search's results (in a web-friendly JSON format)
+	 */
+	public String searchToWeb(String line, boolean exact, int limit, Instant start) {
+		SearchResultCollector request = new SearchResultCollector.Default(stems -> search(stems, exact, limit));
+		request.searchLine(line);
+		return request.outputToWeb(start);
+	}
+	
 	/**
 	 * Outputs the search engine's Inverted Index (in JSON format) to an output file
 	 * @param path output file path
 	 * @throws IOException in case of IO Error
 	 */
 	public void outputIndexTo(Path path) throws IOException {
-		index.toJson(path);
+		snapshot.toJson(path);
+	}
+	
+	/**
+	 * Outputs the search engine's Inverted Index (in binary format) to an output file
+	 * @param path output file path
+	 * @throws IOException in case of IO Error
+	 * @see ImmutableInvertedIndex#fromBinary(Path)
+	 */
+	public void outputBinaryIndexTo(Path path) throws IOException {
+		snapshot.toBinary(path);
 	}
 	
 	/**
@@ -168,7 +427,7 @@ public class SearchEngine {
 	 * @throws IOException in case of IO Error
 	 */
 	public void outputWordCountsTo(Path path) throws IOException {
-		index.countsToJson(path);
+		snapshot.countsToJson(path);
 	}
 	
 	/**
@@ -189,6 +448,16 @@ public class SearchEngine {
 		return searcher.outputToWeb(start);
 	}
 	
+	/**
+	 * Returns the metrics of the search engine's work queue
+	 * @return The metrics of the search engine's work queue, or null if it doesn't have one (or doesn't keep them, or
+	 * runs on another task executor)
+	 * @see WorkQueue#metrics()
+	 */
+	public WorkQueue.Metrics getQueueMetrics() {
+		return queue instanceof WorkQueue ? ((WorkQueue) queue).metrics() : null;
+	}
+	
 	/**
 	 * If the search engine contains a work queue, runs queue.join()
 	 */
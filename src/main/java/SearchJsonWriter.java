@@ -4,7 +4,9 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Extension of SimpleJsonWriter; this one is focused on Search Engine data structures
@@ -24,8 +26,20 @@ public class SearchJsonWriter extends SimpleJsonWriter {
 			Writer writer, int level) throws IOException {
 		
 		if (elements == null) return;
-		
-		var entries = elements.entrySet().iterator();
+		asStringMapStringMapIntCollection(elements.entrySet().iterator(), writer, level);
+	}
+	
+	/**
+	 * {@link #asStringMapStringMapIntCollection(Map, Writer, int)}, but writes the entries given by an iterator.
+	 * Useful when the entries are created on the fly instead of stored in a map.
+	 * @param entries iterator of entries to write, in order
+	 * @param writer writer to use
+	 * @param level initial indent level
+	 * @throws IOException if an IO Error occurs
+	 */
+	public static void asStringMapStringMapIntCollection(
+			Iterator<? extends Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>>> entries,
+			Writer writer, int level) throws IOException {
 		
 		writer.write("{"); // Start of list and head value
 		if (entries.hasNext()) {
@@ -46,6 +60,38 @@ public class SearchJsonWriter extends SimpleJsonWriter {
 		indent("}", writer, level);
 	}
 	
+	/**
+	 * Writes an index whose locations are stored as IDs as a pretty JSON object with the same format as
+	 * {@link #asStringMapStringMapIntCollection(Map, Writer, int)}. Each location ID is resolved to its name
+	 * (and sorted by that name) one entry at a time, right before it's written.
+	 * @param elements elements to write
+	 * @param locations dictionary used to resolve location IDs
+	 * @param writer writer to use
+	 * @param level initial indent level
+	 * @throws IOException if an IO Error occurs
+	 */
+	public static void asLocationIdIndex(Map<String, ? extends Map<Integer, ? extends Collection<Integer>>> elements,
+			LocationDictionary locations, Writer writer, int level) throws IOException {
+		
+		if (elements == null) return;
+		asStringMapStringMapIntCollection(elements.entrySet().stream()
+				.map(entry -> Map.entry( entry.getKey(), resolveLocations(entry.getValue(), locations) ))
+				.iterator(), writer, level);
+	}
+	
+	/**
+	 * Converts a map keyed by location ID into one keyed (and sorted) by location name
+	 * @param byId map keyed by location ID
+	 * @param locations dictionary used to resolve location IDs
+	 * @return map keyed by location name
+	 */
+	private static Map<String, Collection<Integer>> resolveLocations(Map<Integer, ? extends Collection<Integer>> byId,
+			LocationDictionary locations) {
+		Map<String, Collection<Integer>> byName = new TreeMap<>();
+		byId.forEach((id, value) -> byName.put(locations.name(id), value));
+		return byName;
+	}
+	
 	/**
 	 * Writes the elements as a pretty JSON object, where that object is a collection of SearchResults
 	 * @param elements elements to write
@@ -166,6 +212,29 @@ public class SearchJsonWriter extends SimpleJsonWriter {
 		return FunctionalWriter.writeToString(elements, (elem, writer) -> asStringMapStringMapIntCollection(elem, writer, 0));
 	}
 	
+	/**
+	 * {@link #asLocationIdIndex(Map, LocationDictionary, Writer, int)} for outputting to a file
+	 * @param elements elements to write
+	 * @param locations dictionary used to resolve location IDs
+	 * @param path path to output to
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void asLocationIdIndex(Map<String, ? extends Map<Integer, ? extends Collection<Integer>>> elements,
+			LocationDictionary locations, Path path) throws IOException {
+		FunctionalWriter.writeToFile(elements, path, (elem, writer) -> asLocationIdIndex(elem, locations, writer, 0));
+	}
+	
+	/**
+	 * {@link #asLocationIdIndex(Map, LocationDictionary, Writer, int)} for outputting as String
+	 * @param elements elements to write
+	 * @param locations dictionary used to resolve location IDs
+	 * @return index, as a String in JSON format
+	 */
+	public static String asLocationIdIndex(Map<String, ? extends Map<Integer, ? extends Collection<Integer>>> elements,
+			LocationDictionary locations) {
+		return FunctionalWriter.writeToString(elements, (elem, writer) -> asLocationIdIndex(elem, locations, writer, 0));
+	}
+	
 	/**
 	 * {@link #asSearchResultMap(Map)} for outputting to file
 	 * @param elements elements to write
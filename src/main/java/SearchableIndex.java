@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic interface for the read-only side of an inverted index: looking strings up, counting them, searching and
+ * output. Implemented by the modifiable {@link InvertedIndex} (and its thread safe versions) and by the frozen
+ * {@link ImmutableInvertedIndex}, so searches and output don't need to know which one they're given.
+ * @author JRRed
+ *
+ */
+public interface SearchableIndex {
+	/**
+	 * Returns an unmodifiable set of all the strings in the index
+	 * @return An unmodifiable set of all the strings in the index
+	 */
+	Set<String> get();
+
+	/**
+	 * Returns an unmodifiable set of all the locations that contain the given string
+	 * @param str string
+	 * @return An unmodifiable set of all the locations containing the given string
+	 */
+	Set<String> get(String str);
+
+	/**
+	 * Returns an unmodifiable set of all the positions where a string shows up in a given location
+	 * @param str string
+	 * @param location location
+	 * @return An unmodifiable set of all the positions where a string shows up in a given location
+	 */
+	Set<Integer> get(String str, String location);
+
+	/**
+	 * Returns an unmodifiable map of the word count of each location in the index
+	 * @return An unmodifiable map of the word count of each location in the index
+	 */
+	Map<String, Integer> getCounts();
+
+	/**
+	 * Returns the number of locations in the index
+	 * @return The number of locations in the index
+	 */
+	int countsSize();
+
+	/**
+	 * Returns the word count of a location
+	 * @param location location
+	 * @return The word count of the location, or 0 if it isn't in the index
+	 */
+	int countsSize(String location);
+
+	/**
+	 * Returns whether the index contains a given string
+	 * @param str string
+	 * @return Whether the index contains a given string
+	 */
+	boolean contains(String str);
+
+	/**
+	 * Returns whether the index contains a given string and a given location that holds it
+	 * @param str string
+	 * @param location name of place where str was found
+	 * @return Whether the index contains a given string and a given location that holds that string
+	 */
+	boolean contains(String str, String location);
+
+	/**
+	 * Returns whether the index contains a given position num, in a given location, that holds a given string
+	 * @param str string
+	 * @param location name of place where str was found
+	 * @param position position num of the given string
+	 * @return Whether the index contains a given position num, in a given location, that holds a given string
+	 */
+	boolean contains(String str, String location, int position);
+
+	/**
+	 * Returns the number of strings in the index
+	 * @return The number of strings in the index
+	 */
+	int size();
+
+	/**
+	 * Returns the number of locations containing a given string
+	 * @param str string
+	 * @return The number of locations containing a given string. If there's no mapping, returns 0.
+	 */
+	int size(String str);
+
+	/**
+	 * Returns the number of times a given string appears in a given location
+	 * @param str string
+	 * @param location location
+	 * @return The number of times a given string appears in a given location. If there's no mapping, returns 0.
+	 */
+	int size(String str, String location);
+
+	/**
+	 * Creates a JSON version of the index, output to a string
+	 * @return A JSON version of the index, output to a string
+	 */
+	String toJson();
+
+	/**
+	 * Creates a JSON version of the index, output to a path
+	 * @param path path
+	 * @throws IOException In case IO Error occurs
+	 */
+	void toJson(Path path) throws IOException;
+
+	/**
+	 * Writes a binary version of the index to a path, which can be opened again with
+	 * {@link ImmutableInvertedIndex#fromBinary(Path)}
+	 * @param path path
+	 * @throws IOException In case IO Error occurs
+	 */
+	void toBinary(Path path) throws IOException;
+
+	/**
+	 * Creates a JSON version of the word count map, as a string
+	 * @return A JSON version of the word count map, as a string
+	 */
+	String countsToJson();
+
+	/**
+	 * Outputs a JSON version of the word count map to a file
+	 * @param path file path
+	 * @throws IOException In case IO Error occurs
+	 */
+	void countsToJson(Path path) throws IOException;
+
+	/**
+	 * Creates a read-only snapshot of the index, laid out in flat sorted arrays for faster searching. The index is
+	 * left unchanged.
+	 * @return A read-only snapshot of the index (the index itself, if it's already one)
+	 */
+	ImmutableInvertedIndex freeze();
+
+	/**
+	 * Searches the index for each given stem and returns its results
+	 * @param stems stems
+	 * @return Results from this search
+	 */
+	default List<InvertedIndex.SearchResult> exactSearch(Set<String> stems) {
+		return exactSearch(stems, 0);
+	}
+
+	/**
+	 * Searches the index for each given stem and returns its best results
+	 * @param stems stems
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from this search, sorted
+	 */
+	List<InvertedIndex.SearchResult> exactSearch(Set<String> stems, int limit);
+
+	/**
+	 * Searches the index for each given partial stem in stems and returns its results
+	 * @param stems stems
+	 * @return Results from this search
+	 * @note X is defined as a partial stem of Y if X starts with Y. Note that common partial stems are counted
+	 * twice. E.g. if the partial stems would be ("yourselv", "yourself", "your", "yourself", "yourselv"), then
+	 * "yourselv" and "yourself" are each counted twice
+	 */
+	default List<InvertedIndex.SearchResult> partialSearch(Set<String> stems) {
+		return partialSearch(stems, 0);
+	}
+
+	/**
+	 * Searches the index for each given partial stem in stems and returns its best results
+	 * @param stems stems
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from this search, sorted
+	 * @see #partialSearch(Set)
+	 */
+	List<InvertedIndex.SearchResult> partialSearch(Set<String> stems, int limit);
+}
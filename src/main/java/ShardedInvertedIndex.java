@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Thread safe inverted index that splits its strings into shards by hash, each an InvertedIndex with its own lock.
+ * Adding, merging and searching only lock the shards they touch, so merges into different shards (and searches of
+ * shards that aren't being merged into) can run at the same time. All shards share one location dictionary, so
+ * location IDs (and word counts) mean the same thing in every shard; it doesn't lock to read, so sharing it doesn't
+ * serialize the shards again (see {@link LocationDictionary}).
+ * <p>
+ * Since each shard is locked separately, a search that runs during a merge may see some of a location's strings
+ * but not others.
+ * <p>
+ * The shard locks are read-biased (see {@link SimpleReadWriteLock#SimpleReadWriteLock(boolean)}): every search,
+ * get and contains takes a read lock, while writes come a whole document (or merge) at a time, so readers don't
+ * write to a shared counter and writers pay for it instead.
+ * @author JRRed
+ *
+ */
+public class ShardedInvertedIndex implements ModifiableIndex {
+	/** shards of this index */
+	private final InvertedIndex[] shards;
+
+	/** lock of each shard; read-biased */
+	private final SimpleReadWriteLock[] locks;
+
+	/** location dictionary shared by every shard */
+	private final LocationDictionary locations;
+
+	/**
+	 * Constructor
+	 * @param numShards number of shards; should be greater than 0
+	 */
+	public ShardedInvertedIndex(int numShards) {
+		int safe = numShards > 0 ? numShards : 1;
+		this.locations = new LocationDictionary();
+		this.shards = new InvertedIndex[safe];
+		this.locks = new SimpleReadWriteLock[safe];
+
+		for (int i = 0; i < safe; i++) {
+			shards[i] = new InvertedIndex(locations);
+			locks[i] = new SimpleReadWriteLock(true);
+		}
+	}
+
+	/**
+	 * Returns the number of shards in this index
+	 * @return The number of shards in this index
+	 */
+	public int numShards() {
+		return shards.length;
+	}
+
+	@Override
+	public void add(String str, String location, int position) {
+		int shard = shardOf(str);
+		locks[shard].syncRunnable(() -> shards[shard].add(str, location, position), true);
+	}
+
+	@Override
+	public void addDocument(String location, List<String> stems, int startPosition) {
+		if ( stems.isEmpty() ) return;
+		
+		int id = locations.intern(location);
+		List<Map<String, PositionSet>> byShard = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			byShard.add( new HashMap<>() );
+		}
+		
+		for (var entry : InvertedIndex.groupPositions(stems, startPosition).entrySet()) { // group before locking anything
+			byShard.get( shardOf(entry.getKey()) ).put( entry.getKey(), entry.getValue() );
+		}
+		
+		for (int i = 0; i < shards.length; i++) {
+			if ( byShard.get(i).isEmpty() ) continue;
+			
+			InvertedIndex shard = shards[i];
+			Map<String, PositionSet> grouped = byShard.get(i);
+			locks[i].syncRunnable(() -> shard.addPostings(id, grouped), true);
+		}
+		locations.updateCount(id, startPosition + stems.size() - 1);
+	}
+
+	@Override
+	public void removeDocuments(Collection<String> locations) {
+		lockAll(true); // location IDs change in every shard at once
+		try {
+			int[] idMap = this.locations.remove(locations);
+			if (idMap == null) return;
+			
+			for (InvertedIndex shard : shards) {
+				shard.remapLocations(idMap);
+			}
+		}
+		finally {
+			unlockAll(true);
+		}
+	}
+
+	@Override
+	public Set<String> get() {
+		Set<String> strings = new TreeSet<>();
+		for (int i = 0; i < shards.length; i++) {
+			InvertedIndex shard = shards[i];
+			locks[i].syncRunnable(() -> strings.addAll( shard.get() ), false);
+		}
+		return Collections.unmodifiableSet(strings);
+	}
+
+	@Override
+	public Set<String> get(String str) {
+		int shard = shardOf(str);
+		return locks[shard].syncFunction(shards[shard]::get, str, false);
+	}
+
+	@Override
+	public Set<Integer> get(String str, String location) {
+		int shard = shardOf(str);
+		return locks[shard].syncBiFunction(shards[shard]::get, str, location, false);
+	}
+
+	@Override
+	public Map<String, Integer> getCounts() {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (int id = 0; id < locations.size(); id++) {
+			counts.put( locations.name(id), locations.count(id) );
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public int countsSize() {
+		return locations.size();
+	}
+
+	@Override
+	public int countsSize(String location) {
+		int id = locations.lookup(location);
+		return id != -1 ? locations.count(id) : 0;
+	}
+
+	@Override
+	public boolean contains(String str) {
+		int shard = shardOf(str);
+		return locks[shard].syncFunction(shards[shard]::contains, str, false);
+	}
+
+	@Override
+	public boolean contains(String str, String location) {
+		int shard = shardOf(str);
+		return locks[shard].syncBiFunction(shards[shard]::contains, str, location, false);
+	}
+
+	@Override
+	public boolean contains(String str, String location, int position) {
+		int shard = shardOf(str);
+		return locks[shard].syncSupplier(() -> shards[shard].contains(str, location, position), false);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < shards.length; i++) {
+			size += locks[i].optimisticSupplier(shards[i]::size);
+		}
+		return size;
+	}
+
+	@Override
+	public int size(String str) {
+		int shard = shardOf(str);
+		return locks[shard].syncFunction(shards[shard]::size, str, false);
+	}
+
+	@Override
+	public int size(String str, String location) {
+		int shard = shardOf(str);
+		return locks[shard].syncBiFunction(shards[shard]::size, str, location, false);
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+
+	@Override
+	public String toJson() {
+		return freeze().toJson();
+	}
+
+	@Override
+	public void toJson(Path path) throws IOException {
+		freeze().toJson(path);
+	}
+
+	@Override
+	public String countsToJson() {
+		return SimpleJsonWriter.asObject( getCounts() );
+	}
+
+	@Override
+	public void countsToJson(Path path) throws IOException {
+		SimpleJsonWriter.asObject(getCounts(), path);
+	}
+
+	@Override
+	public void toBinary(Path path) throws IOException {
+		freeze().toBinary(path);
+	}
+
+	@Override
+	public List<InvertedIndex.SearchResult> exactSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get(0);
+		List<List<String>> byShard = groupByShard(stems);
+
+		for (int i = 0; i < shards.length; i++) {
+			if ( byShard.get(i).isEmpty() ) continue; // only lock the shards this search touches
+
+			locks[i].readLock().lock();
+			try {
+				scores.ensureCapacity( locations.size() ); // every location in this shard has an ID below this
+				for (String query : byShard.get(i)) {
+					if ( !shards[i].contains(query) ) continue;
+					shards[i].updateResults(query, scores);
+				}
+			}
+			finally {
+				locks[i].readLock().unlock();
+			}
+		}
+		return results(scores, limit);
+	}
+
+	@Override
+	public List<InvertedIndex.SearchResult> partialSearch(Set<String> stems, int limit) {
+		ScoreAccumulator scores = ScoreAccumulator.get(0);
+
+		for (int i = 0; i < shards.length; i++) { // strings with a given prefix can be in any shard
+			locks[i].readLock().lock();
+			try {
+				scores.ensureCapacity( locations.size() );
+				for (String query : stems) {
+					shards[i].updatePartialResults(query, scores);
+				}
+			}
+			finally {
+				locks[i].readLock().unlock();
+			}
+		}
+		return results(scores, limit);
+	}
+
+	@Override
+	public void attemptMergeWith(InvertedIndex other) {
+		int[] idMap = locations.mergeWith( other.locations() );
+		List<List<String>> byShard = groupByShard( other.get() );
+
+		for (int i = 0; i < shards.length; i++) {
+			if ( byShard.get(i).isEmpty() ) continue; // only lock the shards this merge touches
+
+			InvertedIndex shard = shards[i];
+			List<String> strings = byShard.get(i);
+			locks[i].syncRunnable(() -> {
+				for (String str : strings) {
+					shard.mergeStringWith(other, str, idMap);
+				}
+			}, true);
+		}
+	}
+
+	@Override
+	public void clear() {
+		lockAll(true);
+		try {
+			for (InvertedIndex shard : shards) {
+				shard.clear();
+			}
+		}
+		finally {
+			unlockAll(true);
+		}
+	}
+
+	@Override
+	public ImmutableInvertedIndex freeze() {
+		lockAll(false);
+		try {
+			TreeMap<String, Map<Integer, PositionSet>> postings = new TreeMap<>();
+			for (InvertedIndex shard : shards) {
+				shard.putPostingsInto(postings);
+			}
+			return InvertedIndex.freeze(postings, locations);
+		}
+		finally {
+			unlockAll(false);
+		}
+	}
+
+	/**
+	 * Creates the best search results from the matches counted by a search
+	 * @param scores matches counted by the search, by location ID
+	 * @param limit maximum number of results to return; 0 or less means no limit
+	 * @return Best results from the search, sorted
+	 */
+	private List<InvertedIndex.SearchResult> results(ScoreAccumulator scores, int limit) {
+		return scores.results(locations::name, locations::count, limit);
+	}
+
+	/**
+	 * Returns the shard a string belongs to
+	 * @param str string
+	 * @return index of the string's shard
+	 */
+	private int shardOf(String str) {
+		return Math.floorMod(str.hashCode(), shards.length);
+	}
+
+	/**
+	 * Groups strings by the shard they belong to
+	 * @param strings strings
+	 * @return list of strings for each shard, indexed by shard
+	 */
+	private List<List<String>> groupByShard(Collection<String> strings) {
+		List<List<String>> byShard = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			byShard.add( new ArrayList<>() );
+		}
+
+		for (String str : strings) {
+			byShard.get( shardOf(str) ).add(str);
+		}
+		return byShard;
+	}
+
+	/**
+	 * Locks every shard, in order
+	 * @param write true: write locks; false: read locks
+	 */
+	private void lockAll(boolean write) {
+		for (SimpleReadWriteLock lock : locks) {
+			(write ? lock.writeLock() : lock.readLock()).lock();
+		}
+	}
+
+	/**
+	 * Unlocks every shard, in reverse order
+	 * @param write true: write locks; false: read locks
+	 */
+	private void unlockAll(boolean write) {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			(write ? locks[i].writeLock() : locks[i].readLock()).unlock();
+		}
+	}
+}
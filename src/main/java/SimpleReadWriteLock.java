@@ -1,8 +1,11 @@
+import java.lang.invoke.VarHandle;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -17,6 +20,18 @@ import org.apache.logging.log4j.Logger;
  * for writing. The read lock may be held simultaneously by multiple reader
  * threads, so long as there are no writers. The write lock is exclusive. The
  * active writer is able to acquire read or write locks as long as it is active.
+ * <p>
+ * Reads that only look at a field or two (e.g. a size) can skip the read lock
+ * entirely with {@link #optimisticSupplier(Supplier)}: the lock keeps a version
+ * that writers bump when they start and finish, so a read that saw the same
+ * even version before and after can't have overlapped a write. Otherwise, the
+ * read is done again under the read lock.
+ * <p>
+ * By default, every reader counts itself under one shared monitor, so readers
+ * contend with each other. A read-biased lock instead spreads readers over
+ * padded slots by thread ID, so a reader only writes to its own slot's cache
+ * line. A writer first tells readers to take the shared path instead, then
+ * waits for every slot to empty, so writes cost more.
  *
  * <!-- simplified lock used for this class -->
  * @see SimpleLock
@@ -26,6 +41,7 @@ import org.apache.logging.log4j.Logger;
  * @see ReentrantLock
  * @see ReadWriteLock
  * @see ReentrantReadWriteLock
+ * @see StampedLock
  *
  * @author CS 212 Software Development
  * @author University of San Francisco
@@ -46,6 +62,37 @@ public class SimpleReadWriteLock {
 
 	/** The thread that holds the write lock. */
 	private Thread activeWriter;
+	
+	/** The number of writers waiting for the write lock. */
+	private int waitingWriters;
+	
+	/**
+	 * Incremented when a writer gets the write lock (making it odd) and when it
+	 * releases it (making it even again), so optimistic reads can tell whether
+	 * they overlapped a write.
+	 */
+	private volatile long version;
+	
+	/** Stamp returned by {@link #tryOptimisticRead()} while a writer is active. */
+	public static final long NO_STAMP = -1;
+	
+	/** Number of ints between two read-biased slots, so each is on its own cache line. */
+	private static final int STRIDE = 16;
+	
+	/**
+	 * Number of read locks held through each slot, if read-biased (or null
+	 * otherwise). Only the slot at every {@link #STRIDE}th index is used.
+	 */
+	private final AtomicIntegerArray slots;
+	
+	/** Number of read-biased slots; a power of 2. */
+	private final int numSlots;
+	
+	/** Whether readers must take the shared path, because a writer is active or waiting. */
+	private volatile boolean revoked;
+	
+	/** Number of read locks each thread holds through its slot. */
+	private final ThreadLocal<int[]> slotHolds;
 
 	/** The log4j2 logger. */
 	private static final Logger log = LogManager.getLogger();
@@ -63,12 +110,75 @@ public class SimpleReadWriteLock {
 	 * Initializes a new simple read/write lock.
 	 */
 	public SimpleReadWriteLock() {
+		this(false);
+	}
+	
+	/**
+	 * Initializes a new simple read/write lock.
+	 *
+	 * @param readBiased whether readers use their own slots instead of a shared
+	 *        count, which speeds up reads but slows down writes
+	 */
+	public SimpleReadWriteLock(boolean readBiased) {
 		readerLock = new SimpleReadLock();
 		writerLock = new SimpleWriteLock();
 		lock = new Object();
 		readers = 0;
 		writers = 0;
 		activeWriter = null;
+		waitingWriters = 0;
+		version = 0;
+		revoked = false;
+		numSlots = Integer.highestOneBit( Runtime.getRuntime().availableProcessors() * 2 - 1 ) << 1;
+		slots = readBiased ? new AtomicIntegerArray(numSlots * STRIDE) : null;
+		slotHolds = readBiased ? ThreadLocal.withInitial( () -> new int[1] ) : null;
+	}
+	
+	/**
+	 * Returns a stamp for an optimistic read, which must be checked with
+	 * {@link #validate(long)} once the read is done.
+	 *
+	 * @return a stamp, or {@link #NO_STAMP} if a writer is active
+	 */
+	public long tryOptimisticRead() {
+		long stamp = version;
+		return (stamp & 1) == 0 ? stamp : NO_STAMP;
+	}
+	
+	/**
+	 * Returns whether no writer has been active since a stamp was returned by
+	 * {@link #tryOptimisticRead()}, so everything read since then is consistent.
+	 *
+	 * @param stamp stamp
+	 * @return true if no writer has been active since the stamp was returned
+	 */
+	public boolean validate(long stamp) {
+		VarHandle.acquireFence(); // the reads being validated happen before version is read again
+		return stamp != NO_STAMP && version == stamp;
+	}
+	
+	/**
+	 * Runs a read-only supplier method without the read lock, and again with it
+	 * if a writer was active at any point. Only for methods that read a few
+	 * fields, since a method that sees a write in progress may see a broken
+	 * state (e.g. a cycle in a tree that's being rebalanced).
+	 *
+	 * @param <O> output type
+	 * @param method supplier method
+	 * @return the output of the supplier method
+	 */
+	public <O> O optimisticSupplier(Supplier<O> method) {
+		long stamp = tryOptimisticRead();
+		if (stamp != NO_STAMP) {
+			try {
+				O result = method.get();
+				if ( validate(stamp) ) return result;
+			}
+			catch (RuntimeException e) { // Case: saw a write in progress, so read again under the lock
+				log.catching(Level.TRACE, e);
+			}
+		}
+		return syncSupplier(method, false);
 	}
 	
 	/**
@@ -190,9 +300,35 @@ public class SimpleReadWriteLock {
 	 */
 	public int readers() {
 		synchronized (lock) {
-			return readers;
+			return readers + slotReaders();
 		}
 	}
+	
+	/**
+	 * Returns the number of read locks held through read-biased slots.
+	 *
+	 * @return the number of read locks held through read-biased slots, or 0 if
+	 *         not read-biased
+	 */
+	private int slotReaders() {
+		if (slots == null) return 0;
+		
+		int count = 0;
+		for (int i = 0; i < numSlots; i++) {
+			count += slots.get(i * STRIDE);
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the index of the calling thread's read-biased slot.
+	 *
+	 * @return the index of the calling thread's slot
+	 */
+	private int slotOf() {
+		long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L; // spreads out consecutive IDs
+		return (int) (id >>> 32 & (numSlots - 1)) * STRIDE;
+	}
 
 	/**
 	 * Returns the number of active writers.
@@ -232,6 +368,20 @@ public class SimpleReadWriteLock {
 		 */
 		@Override
 		public void lock() {
+			if (slots != null && !revoked) { // Case: read-biased, and no writer, so just mark this thread's slot
+				int slot = slotOf();
+				slots.incrementAndGet(slot);
+				
+				if (!revoked) { // checked again after marking, so a writer that came in either sees the mark or is seen
+					slotHolds.get()[0]++;
+					return;
+				}
+				slots.decrementAndGet(slot); // a writer came in: let it know, and take the shared path
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+			
 			/*
 			 * Note: This starts with the basic implementation from lecture (plus some
 			 * logging). You will eventually need to modify it to check for whether
@@ -267,6 +417,22 @@ public class SimpleReadWriteLock {
 		 */
 		@Override
 		public void unlock() throws IllegalStateException {
+			if (slots != null) {
+				int[] holds = slotHolds.get();
+				
+				if (holds[0] > 0) { // Case: this thread took a read lock through its slot
+					holds[0]--;
+					slots.decrementAndGet( slotOf() );
+					
+					if (revoked) { // a writer may be waiting for the slots to empty
+						synchronized (lock) {
+							lock.notifyAll();
+						}
+					}
+					return;
+				}
+			}
+			
 			synchronized(lock) {
 				if (readers == 0) throw new IllegalStateException("trying to unlock read lock but there are 0 readers");
 				
@@ -287,17 +453,36 @@ public class SimpleReadWriteLock {
 		 * while there are any active readers or writers, and it is not the active
 		 * writer thread. Once safe, the thread is allowed to acquire a write lock
 		 * by incrementing the number of active writers and setting the active
-		 * writer reference.
+		 * writer reference. While waiting, read-biased readers are told to take
+		 * the shared path, and the read-biased slots must empty too.
 		 */
 		@Override
 		public void lock() {
 			try {
 				synchronized (lock) {
-					while ( readers + writers > 0 && !isActiveWriter() ) {
-						lock.wait();
+					if ( !isActiveWriter() ) {
+						waitingWriters++;
+						revoked = true;
+						boolean acquired = false;
+						
+						try {
+							while ( readers + writers > 0 || slotReaders() > 0 ) {
+								lock.wait();
+							}
+							acquired = true;
+						}
+						finally {
+							waitingWriters--;
+							if (!acquired && writers == 0) revoked = waitingWriters > 0; // Case: interrupted
+						}
 					}
 					writers++;
 					activeWriter = Thread.currentThread();
+					
+					if (writers == 1) {
+						version++; // odd: optimistic reads from now on fail
+						VarHandle.fullFence(); // so no write below is seen before the new version
+					}
 				}
 			}
 			catch (InterruptedException ex) {
@@ -328,6 +513,8 @@ public class SimpleReadWriteLock {
 				
 				if (writers == 0) {
 					activeWriter = null;
+					version++; // even again, after every write above
+					revoked = waitingWriters > 0;
 					lock.notifyAll();
 				}
 			}
@@ -0,0 +1,178 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Class whose sole responsibility is to remember the stems of words that have already been stemmed. Since the same
+ * words show up over and over in natural language, most words are stemmed once and then looked up. The cache is
+ * safe to share between threads: lookups go through a ConcurrentHashMap, and misses are stemmed by a stemmer that
+ * belongs to the calling thread (SnowballStemmer isn't thread safe).
+ * <p>
+ * The cache holds at most a fixed number of words, evicted with the CLOCK policy (an approximation of least recently
+ * used): cached words sit in a ring, and each one has a bit that's set whenever it's found. A new word replaces the
+ * first word the ring's hand reaches whose bit isn't set, and the hand clears every bit it passes on the way, so
+ * words that keep being used stay cached and words that stop being used are replaced. New words start with their bit
+ * cleared, so a word that's only seen once (e.g. a typo) is evicted before a word that was found again. Hits only
+ * read the map (and set the bit if it isn't already set); only misses lock, to place the new word in the ring.
+ * @author JRRed
+ *
+ */
+public class StemCache implements Stemmer {
+	/** Default maximum number of words to remember */
+	public static final int DEFAULT_CAPACITY = 1 << 17;
+
+	/** Cache shared by every collector and query parser */
+	private static volatile StemCache shared = new StemCache(DEFAULT_CAPACITY);
+
+	/** map from word to its cache entry */
+	private final ConcurrentHashMap<String, Entry> stems;
+
+	/** maximum number of words to remember; 0 or less turns caching off */
+	private final int capacity;
+
+	/** ring of cached entries, in the order the hand visits them; guarded by itself */
+	private final Entry[] ring;
+
+	/** next slot of the ring the hand visits; guarded by ring */
+	private int hand;
+
+	/** stemmer of each thread, used for cache misses */
+	private final ThreadLocal<Stemmer> stemmers;
+
+	/** number of words found in the cache */
+	private final LongAdder hits;
+
+	/** number of words that had to be stemmed */
+	private final LongAdder misses;
+
+	/**
+	 * Constructor
+	 * @param capacity maximum number of words to remember; 0 or less turns caching off
+	 */
+	public StemCache(int capacity) {
+		this.capacity = capacity;
+		this.stems = new ConcurrentHashMap<>( Math.max(capacity, 0) );
+		this.ring = new Entry[ Math.max(capacity, 0) ];
+		this.hand = 0;
+		this.stemmers = ThreadLocal.withInitial( () -> new SnowballStemmer(TextFileStemmer.DEFAULT) );
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the cache shared by every collector and query parser
+	 * @return The shared cache
+	 */
+	public static StemCache shared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the shared cache (e.g. to change its capacity). Should be called before any stems are collected.
+	 * @param cache new shared cache
+	 */
+	public static void setShared(StemCache cache) {
+		shared = cache;
+	}
+
+	@Override
+	public CharSequence stem(CharSequence word) {
+		String key = word.toString();
+
+		if (capacity > 0) {
+			Entry cached = stems.get(key);
+			if (cached != null) {
+				if (!cached.referenced) cached.referenced = true; // only write when it changes, so hits stay read-only
+				hits.increment();
+				return cached.stem;
+			}
+		}
+
+		misses.increment();
+		String stem = stemmers.get().stem(key).toString(); // outside of the lock, since it's the slow part
+		if (capacity > 0) admit( new Entry(key, stem) );
+		return stem;
+	}
+
+	/**
+	 * Adds an entry to the cache, replacing the first entry the hand reaches that hasn't been found since the hand
+	 * last passed it
+	 * @param entry new entry
+	 */
+	private void admit(Entry entry) {
+		synchronized (ring) {
+			if ( stems.putIfAbsent(entry.word, entry) != null ) return; // Case: another thread just stemmed it
+
+			while (ring[hand] != null && ring[hand].referenced) {
+				ring[hand].referenced = false; // second chance
+				hand = (hand + 1) % ring.length;
+			}
+			if (ring[hand] != null) stems.remove(ring[hand].word, ring[hand]);
+
+			ring[hand] = entry;
+			hand = (hand + 1) % ring.length;
+		}
+	}
+
+	/**
+	 * Returns the number of words found in the cache
+	 * @return The number of words found in the cache
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of words that had to be stemmed
+	 * @return The number of words that had to be stemmed
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of words in the cache
+	 * @return The number of words in the cache
+	 */
+	public int size() {
+		return stems.size();
+	}
+
+	@Override
+	public String toString() {
+		long hits = hits();
+		long total = hits + misses();
+		return String.format("%d hits, %d misses (%.1f%% hit rate), %d of %d words cached", hits, total - hits,
+				total > 0 ? 100.0 * hits / total : 0.0, size(), capacity);
+	}
+
+	/**
+	 * Class whose sole responsibility is to hold one cached word, its stem, and whether it has been found since the
+	 * hand last passed it
+	 * @author JRRed
+	 *
+	 */
+	private static class Entry {
+		/** word */
+		private final String word;
+
+		/** stem of the word */
+		private final String stem;
+
+		/** whether the word has been found since the hand last passed it */
+		private volatile boolean referenced;
+
+		/**
+		 * Constructor
+		 * @param word word
+		 * @param stem stem of the word
+		 */
+		private Entry(String word, String stem) {
+			this.word = word;
+			this.stem = stem;
+			this.referenced = false;
+		}
+	}
+}
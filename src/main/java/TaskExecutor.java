@@ -0,0 +1,108 @@
+/**
+ * Basic interface for running tasks on a pool of threads, so the search engine (and the collectors it shares the
+ * pool with) can run on any backend: a {@link WorkQueue}, or a standard executor (see {@link ExecutorServiceAdapter}).
+ * @author JRRed
+ *
+ */
+public interface TaskExecutor {
+	/**
+	 * Runs a task on the pool. If this is called by a task that belongs to a {@link TaskGroup}, the new task belongs
+	 * to the same group.
+	 * @param task task
+	 */
+	void execute(Runnable task);
+
+	/**
+	 * Runs a task on the pool, with a priority. Backends without priorities run it like any other task.
+	 * @param task task
+	 * @param priority priority of the task
+	 */
+	default void execute(Runnable task, Priority priority) {
+		execute(task);
+	}
+
+	/**
+	 * Creates a new, empty task group
+	 * @return A new, empty task group
+	 */
+	TaskGroup newGroup();
+
+	/**
+	 * Runs a task on the pool, in a new group of its own
+	 * @param task task
+	 * @return A group with just this task, and any tasks it submits, so they can be waited on with
+	 * {@link TaskGroup#await()}
+	 */
+	default TaskGroup submit(Runnable task) {
+		TaskGroup group = newGroup();
+		group.execute(task);
+		return group;
+	}
+
+	/**
+	 * Waits for every task to be finished, including tasks that belong to other callers. The pool can still be used
+	 * afterwards.
+	 */
+	void finish();
+
+	/**
+	 * Waits for every task to be finished, then shuts the pool down. The pool can't be used afterwards.
+	 */
+	void join();
+
+	/**
+	 * Returns the number of tasks the pool runs at once
+	 * @return The number of tasks the pool runs at once
+	 */
+	int size();
+
+	/**
+	 * Priority of a task
+	 * @author JRRed
+	 *
+	 */
+	enum Priority {
+		/** Runs before every normal task that's waiting (e.g. a search the user is waiting on) */
+		HIGH,
+
+		/** Runs in about the order it was submitted (e.g. background indexing or crawling) */
+		NORMAL
+	}
+
+	/**
+	 * Basic interface for a group of tasks, so they can be waited on without waiting on every other task in the pool
+	 * (unlike {@link TaskExecutor#finish()}). Tasks submitted by a task in the group, with either
+	 * {@link #execute(Runnable)} or {@link TaskExecutor#execute(Runnable)}, belong to the group too.
+	 * @author JRRed
+	 *
+	 */
+	interface TaskGroup {
+		/**
+		 * Runs a task on the pool, as part of this group
+		 * @param task task
+		 */
+		void execute(Runnable task);
+
+		/**
+		 * Runs a task on the pool with a priority, as part of this group. Backends without priorities run it like
+		 * any other task.
+		 * @param task task
+		 * @param priority priority of the task
+		 */
+		default void execute(Runnable task, Priority priority) {
+			execute(task);
+		}
+
+		/**
+		 * Waits for all of this group's tasks to be finished, including tasks submitted by its tasks. Should not be
+		 * called by a task in this group, since it would wait on itself.
+		 */
+		void await();
+
+		/**
+		 * Returns the number of this group's tasks that haven't finished
+		 * @return The number of this group's tasks that haven't finished
+		 */
+		int pending();
+	}
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * Class whose sole responsibility is to store a sorted, read-only set of strings, and to find every string that
+ * starts with a given prefix. Since the strings are sorted, all strings with the same prefix sit next to each other,
+ * so a prefix is answered with two binary searches (one for where its range starts and one for where it ends)
+ * instead of checking startsWith() on every string in the range.
+ * @author JRRed
+ *
+ */
+public class TermDictionary {
+	/** sorted, unique strings */
+	private final String[] terms;
+
+	/**
+	 * Constructor
+	 * @param terms sorted, unique strings
+	 */
+	TermDictionary(String[] terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * Returns the number of strings in this dictionary
+	 * @return The number of strings in this dictionary
+	 */
+	public int size() {
+		return terms.length;
+	}
+
+	/**
+	 * Returns the string at a given index
+	 * @param index index
+	 * @return The string at the given index
+	 * @note Precondition: 0 &lt;= index &lt; size()
+	 */
+	public String term(int index) {
+		return terms[index];
+	}
+
+	/**
+	 * Returns the index of a string
+	 * @param term string
+	 * @return The index of the string, or a negative number if it's not in this dictionary
+	 * @see Arrays#binarySearch(Object[], Object)
+	 */
+	public int indexOf(String term) {
+		return Arrays.binarySearch(terms, term);
+	}
+
+	/**
+	 * Returns the index of the first string that starts with a prefix
+	 * @param prefix prefix
+	 * @return The index of the first string that starts with the prefix. If there isn't one, this is equal to
+	 * prefixEnd(prefix).
+	 */
+	public int prefixStart(String prefix) {
+		return lowerBound(prefix);
+	}
+
+	/**
+	 * Returns the index right after the last string that starts with a prefix
+	 * @param prefix prefix
+	 * @return The index right after the last string that starts with the prefix
+	 */
+	public int prefixEnd(String prefix) {
+		String successor = successor(prefix);
+		return successor != null ? lowerBound(successor) : terms.length;
+	}
+
+	/**
+	 * Returns the number of strings that start with a prefix
+	 * @param prefix prefix
+	 * @return The number of strings that start with the prefix
+	 */
+	public int prefixCount(String prefix) {
+		return prefixEnd(prefix) - prefixStart(prefix);
+	}
+
+	/**
+	 * Returns a copy of every string in this dictionary, in sorted order
+	 * @return A copy of every string in this dictionary
+	 */
+	public String[] toArray() {
+		return terms.clone();
+	}
+
+	/**
+	 * Returns the smallest string that's greater than every string starting with a prefix
+	 * @param prefix prefix
+	 * @return The smallest string greater than every string starting with the prefix, or null if there isn't one
+	 * (i.e. the prefix is empty or only made of Character.MAX_VALUE)
+	 */
+	static String successor(String prefix) {
+		for (int i = prefix.length() - 1; i >= 0; i--) {
+			char c = prefix.charAt(i);
+			if (c != Character.MAX_VALUE) return prefix.substring(0, i) + (char)(c + 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the index of the first string that's greater than or equal to a given string
+	 * @param str string
+	 * @return The index of the first string that's greater than or equal to the given string
+	 */
+	private int lowerBound(String str) {
+		int index = indexOf(str);
+		return index >= 0 ? index : -(index + 1);
+	}
+}
@@ -18,7 +18,7 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  * @author University of San Francisco
  * @version Summer 2021
  *
- * @see TextParser
+ * @see TextTokenizer
  */
 public class TextFileStemmer {
 	/** The default stemmer algorithm used by this class. */
@@ -32,7 +32,7 @@ public class TextFileStemmer {
 	 * @return a list of cleaned and stemmed words
 	 *
 	 * @see Stemmer#stem(CharSequence)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer#tokenize(CharSequence, TextTokenizer.TokenConsumer)
 	 */
 	public static ArrayList<String> listStems(String line, Stemmer stemmer) {
 		return getStems(line, stemmer, new ArrayList<String>());
@@ -44,12 +44,11 @@ public class TextFileStemmer {
 	 * @param line the line of words to clean, split, and stem
 	 * @return a list of cleaned and stemmed words
 	 *
-	 * @see SnowballStemmer
-	 * @see #DEFAULT
+	 * @see StemCache#shared()
 	 * @see #listStems(String, Stemmer)
 	 */
 	public static ArrayList<String> listStems(String line) {
-		return listStems(line, new SnowballStemmer(DEFAULT));
+		return listStems(line, StemCache.shared());
 	}
 
 	/**
@@ -61,7 +60,7 @@ public class TextFileStemmer {
 	 * @throws IOException if unable to read or parse file
 	 *
 	 * @see #uniqueStems(String)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer#tokenize(CharSequence, TextTokenizer.TokenConsumer)
 	 */
 	public static ArrayList<String> listStems(Path inputFile) throws IOException {
 		return getStems(inputFile, new ArrayList<String>());
@@ -74,12 +73,11 @@ public class TextFileStemmer {
 	 * @param line the line of words to clean, split, and stem
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
-	 * @see SnowballStemmer
-	 * @see #DEFAULT
+	 * @see StemCache#shared()
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		return uniqueStems(line, new SnowballStemmer(DEFAULT));
+		return uniqueStems(line, StemCache.shared());
 	}
 
 	/**
@@ -91,7 +89,7 @@ public class TextFileStemmer {
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
 	 * @see Stemmer#stem(CharSequence)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer#tokenize(CharSequence, TextTokenizer.TokenConsumer)
 	 */
 	public static TreeSet<String> uniqueStems(String line, Stemmer stemmer) {
 		return getStems(line, stemmer, new TreeSet<String>());
@@ -106,7 +104,7 @@ public class TextFileStemmer {
 	 * @throws IOException if unable to read or parse file
 	 *
 	 * @see #uniqueStems(String)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer#tokenize(CharSequence, TextTokenizer.TokenConsumer)
 	 */
 	public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
 		return getStems(inputFile, new TreeSet<String>());
@@ -121,11 +119,7 @@ public class TextFileStemmer {
 	 * @return set of stems
 	 */
 	private static <C extends Collection<String>> C getStems(String line, Stemmer stemmer, C stemSet) {
-		String[] words = TextParser.parse(line);
-		for (String word : words) {
-			stemSet.add( stemmer.stem(word).toString() );
-		}
-		
+		TextTokenizer.get().tokenize( line, word -> stemSet.add( stemmer.stem(word).toString() ) );
 		return stemSet;
 	}
 	
@@ -138,7 +132,7 @@ public class TextFileStemmer {
 	 * @throws IOException in case of IO Error
 	 */
 	private static <C extends Collection<String>> C getStems(Path inputFile, C stemSet) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemCache.shared();
 		
 		try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
 			String line;
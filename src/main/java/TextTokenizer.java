@@ -0,0 +1,241 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class whose sole responsibility is to split text into clean words, the same words {@link TextParser#parse(String)}
+ * gives, in one pass over the text. Letters are lowercased into a reusable char buffer and handed to a
+ * {@link TokenConsumer} one word at a time, so plain ASCII text is parsed without creating any Strings or arrays.
+ * <p>
+ * Text with non-ASCII characters falls back to the slow path: the rest of the text is normalized (NFD), so
+ * diacritical marks can be stripped like TextParser does, and each word is lowercased with
+ * {@link String#toLowerCase()}.
+ * <p>
+ * Each thread reuses its own tokenizer (see {@link #get()}).
+ * @author JRRed
+ *
+ */
+public class TextTokenizer {
+	/** tokenizer of each thread */
+	private static final ThreadLocal<TextTokenizer> CURRENT = ThreadLocal.withInitial(TextTokenizer::new);
+
+	/** letters of the current word */
+	private char[] buffer;
+
+	/** number of chars in buffer */
+	private int length;
+
+	/** view of buffer that is handed to consumers */
+	private final Token token;
+
+	/**
+	 * Function that is given each word of a text
+	 * @author JRRed
+	 *
+	 */
+	@FunctionalInterface
+	public interface TokenConsumer {
+		/**
+		 * Accepts one word
+		 * @param word cleaned, lowercased word
+		 * @note word may be backed by a reused buffer, so call toString() to keep it past this call
+		 */
+		void accept(CharSequence word);
+	}
+
+	/**
+	 * Constructor
+	 */
+	private TextTokenizer() {
+		this.buffer = new char[32];
+		this.length = 0;
+		this.token = new Token();
+	}
+
+	/**
+	 * Returns the current thread's tokenizer
+	 * @return The current thread's tokenizer
+	 * @note Only one text per thread should be tokenized at a time
+	 */
+	public static TextTokenizer get() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Parses text into an array of clean words, like {@link TextParser#parse(String)}
+	 * @param text the text to clean and split
+	 * @return an array of {@link String} objects
+	 */
+	public static String[] parse(String text) {
+		List<String> words = new ArrayList<>();
+		get().tokenize( text, word -> words.add( word.toString() ) );
+		return words.toArray(new String[0]);
+	}
+
+	/**
+	 * Splits text into clean, lowercased words and gives each one to a consumer, in order
+	 * @param text text
+	 * @param consumer consumer of each word
+	 */
+	public void tokenize(CharSequence text, TokenConsumer consumer) {
+		length = 0;
+		if ( !asciiLowerCase() ) {
+			tokenizeSlow(text, 0, false, consumer);
+			return;
+		}
+
+		boolean emitted = false;
+		int start = 0; // index right after the last whitespace
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (c >= 0x80) {
+				length = 0;
+				tokenizeSlow(text, start, emitted, consumer);
+				return;
+			}
+			else if (c >= 'a' && c <= 'z') {
+				append(c);
+			}
+			else if (c >= 'A' && c <= 'Z') {
+				append( (char) (c + ('a' - 'A')) );
+			}
+			else if ( c == ' ' || (c >= '\t' && c <= '\r') ) {
+				start = i + 1;
+				if (length > 0) {
+					emit(consumer);
+					emitted = true;
+				}
+			}
+		}
+
+		if (length > 0) emit(consumer);
+	}
+
+	/**
+	 * Tokenizes the rest of a text that isn't plain ASCII. Its letters and whitespace are lowercased together, like
+	 * TextParser does, since String.toLowerCase() can depend on the letters around each one (e.g. the Greek final sigma).
+	 * @param text text
+	 * @param start index to start at, which must be 0 or right after an ASCII whitespace
+	 * @param emitted whether any words have already been given to consumer
+	 * @param consumer consumer of each word
+	 */
+	private void tokenizeSlow(CharSequence text, int start, boolean emitted, TokenConsumer consumer) {
+		// keep the whitespace before start, so String.toLowerCase() sees the same context as it does for the whole text
+		String normalized = Normalizer.normalize(text.subSequence( Math.max(start - 1, 0), text.length() ), Normalizer.Form.NFD);
+
+		length = 0;
+		for (int i = 0; i < normalized.length(); ) {
+			int cp = normalized.codePointAt(i);
+			i += Character.charCount(cp);
+
+			if ( Character.isAlphabetic(cp) || isSpace(cp) ) {
+				if (buffer.length - length < 2) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				length += Character.toChars(cp, buffer, length);
+			}
+		}
+		String cleaned = new String(buffer, 0, length).toLowerCase();
+		length = 0;
+
+		/*
+		 * TextParser strips only the whitespace Character.isWhitespace knows about, then splits on all Unicode
+		 * whitespace. So a no-break space before the first word gives it an empty first word. Keep that quirk, so
+		 * both give the same words.
+		 */
+		boolean leadingGap = false;
+		int wordStart = -1;
+
+		for (int i = 0; i <= cleaned.length(); ) {
+			int cp = i < cleaned.length() ? cleaned.codePointAt(i) : ' ';
+
+			if ( !isSpace(cp) ) {
+				if (wordStart < 0) wordStart = i;
+			}
+			else if (wordStart >= 0) {
+				if (!emitted && leadingGap) consumer.accept("");
+				consumer.accept( cleaned.substring(wordStart, i) );
+				emitted = true;
+				wordStart = -1;
+			}
+			else if ( !emitted && !Character.isWhitespace(cp) ) {
+				leadingGap = true;
+			}
+			i += Character.charCount(cp);
+		}
+	}
+
+	/**
+	 * Gives the word in the buffer to a consumer, and empties the buffer
+	 * @param consumer consumer
+	 */
+	private void emit(TokenConsumer consumer) {
+		consumer.accept(token);
+		length = 0;
+	}
+
+	/**
+	 * Adds a char to the current word
+	 * @param c char
+	 */
+	private void append(char c) {
+		if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		buffer[length++] = c;
+	}
+
+	/**
+	 * Returns whether a code point is whitespace the way TextParser's (?U)\p{Space} sees it (the Unicode
+	 * White_Space property)
+	 * @param cp code point
+	 * @return Whether cp is whitespace
+	 */
+	private static boolean isSpace(int cp) {
+		switch ( Character.getType(cp) ) {
+		case Character.SPACE_SEPARATOR:
+		case Character.LINE_SEPARATOR:
+		case Character.PARAGRAPH_SEPARATOR:
+			return true;
+		default:
+			return (cp >= '\t' && cp <= '\r') || cp == 0x85;
+		}
+	}
+
+	/**
+	 * Returns whether ASCII letters can be lowercased by adding 32, which isn't the case in Turkish and Azeri
+	 * (where 'I' lowercases to a dotless i)
+	 * @return Whether the ASCII fast path gives the same words as String.toLowerCase()
+	 */
+	private static boolean asciiLowerCase() {
+		String language = Locale.getDefault().getLanguage();
+		return !language.equals("tr") && !language.equals("az");
+	}
+
+	/**
+	 * Read-only view of the current word in the buffer
+	 * @author JRRed
+	 *
+	 */
+	private class Token implements CharSequence {
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return buffer[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(buffer, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(buffer, 0, length);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +33,22 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 	
+	@Override
+	public void addDocument(String location, List<String> stems, int startPosition) {
+		lock.writeLock().lock();
+		try {
+			super.addDocument(location, stems, startPosition);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public void removeDocuments(Collection<String> locations) {
+		lock.syncConsumer(super::removeDocuments, locations, true);
+	}
+	
 	@Override
 	public Set<String> get() {
 		return lock.syncSupplier(super::get, false);
@@ -77,7 +94,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.readLock().lock();
 		
 		try {
-			return contains(str, location, position);
+			return super.contains(str, location, position);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -138,17 +155,27 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 	
 	@Override
-	public List<SearchResult> exactSearch(Set<String> stems) {
-		return lock.syncFunction(super::exactSearch, stems, false);
+	public List<SearchResult> exactSearch(Set<String> stems, int limit) {
+		return lock.syncBiFunction(super::exactSearch, stems, limit, false);
 	}
 	
 	@Override
-	public List<SearchResult> partialSearch(Set<String> stems) {
-		return lock.syncFunction(super::partialSearch, stems, false);
+	public List<SearchResult> partialSearch(Set<String> stems, int limit) {
+		return lock.syncBiFunction(super::partialSearch, stems, limit, false);
 	}
 	
 	@Override
 	public void attemptMergeWith(InvertedIndex other) {
 		lock.syncConsumer(super::attemptMergeWith, other, true);
 	}
+	
+	@Override
+	public void clear() {
+		lock.syncRunnable(super::clear, true);
+	}
+	
+	@Override
+	public ImmutableInvertedIndex freeze() {
+		return lock.syncSupplier(super::freeze, false);
+	}
 }
\ No newline at end of file
@@ -4,16 +4,35 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A class whose sole responsibility is to represent a web crawler: something that parses a seed URL and the URLs it holds, and adds its stems to an Inverted Index
+ * <p>
+ * By default, each URL is fetched and parsed by one task on the work queue, so only as many pages as there are worker
+ * threads are fetched at once. With a fetch limit, fetches run on their own threads instead (up to that many at once),
+ * and only parsing runs on the work queue. On Java 21 or later, each fetch gets a virtual thread, so hundreds of
+ * fetches can wait on the network without hundreds of OS threads; on older versions, a small fixed pool of platform
+ * threads is used (see {@link ExecutorServiceAdapter#newPlatformThreadExecutor(int)}), and the rest of the fetches
+ * wait their turn.
  * @author JRRed
  *
  */
 public class WebCrawler implements StemCrawler {
+	/** Logger */
+	private static final Logger log = LogManager.getLogger();
+	
+	/** Default maximum number of fetches at once, when fetches run on their own threads */
+	public static final int DEFAULT_FETCHES = 256;
+	
 	/** A set used to keep track of unique links */
 	private final Set<String> lookup;
 	
@@ -21,44 +40,82 @@ public class WebCrawler implements StemCrawler {
 	private final List<String> links;
 	
 	/** Thread-Safe Inverted Index */
-	private final ThreadSafeInvertedIndex index;
+	private final ModifiableIndex index;
 	
-	/** work queue */
-	private final WorkQueue queue;
+	/** work queue (or any other task executor) */
+	private final TaskExecutor queue;
 	
 	/** max num of urls to crawl */
 	private final int max;
 	
+	/** Combines the local indexes of every task, so only one merge into index is needed */
+	private final IndexReducer reducer;
+	
+	/** Maximum number of fetches at once on their own threads, or 0 if fetches run on the work queue */
+	private final int fetches;
+	
+	/** Threads fetches run on during a crawl, or null if they run on the work queue */
+	private ExecutorService fetchers;
+	
+	/** Limits how many fetches run at once */
+	private Semaphore fetchPermits;
+	
+	/** Number of URLs whose fetch or parse hasn't finished, when fetches run on their own threads */
+	private final AtomicInteger crawling;
+	
 	/**
 	 * Constructor
-	 * @param index index
+	 * @param index thread safe index (e.g. a ShardedInvertedIndex)
 	 * @param queue queue
 	 * @param max max num of urls to crawl
 	 */
-	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, int max) {
+	public WebCrawler(ModifiableIndex index, TaskExecutor queue, int max) {
+		this(index, queue, max, 0);
+	}
+	
+	/**
+	 * Constructor
+	 * @param index thread safe index (e.g. a ShardedInvertedIndex)
+	 * @param queue queue, which parses fetched pages
+	 * @param max max num of urls to crawl
+	 * @param fetches maximum number of fetches at once, on their own threads; 0 or less fetches on the work queue
+	 */
+	public WebCrawler(ModifiableIndex index, TaskExecutor queue, int max, int fetches) {
 		this.index = index;
 		this.max = max;
 		this.queue = queue;
 		this.links = new ArrayList<>();
 		this.lookup = new HashSet<>();
+		this.reducer = new IndexReducer();
+		this.fetches = Math.max(fetches, 0);
+		this.fetchers = null;
+		this.fetchPermits = null;
+		this.crawling = new AtomicInteger();
 	}
 	
 	/**
 	 * Adds unique links to queue
 	 * @param validLinks list of links
 	 */
-	public synchronized void crawlUniqueLinks(List<URL> validLinks) {
-		for (URL link : validLinks) {
-			if (links.size() == max) break;
-			String linkName = link.toString();
-
-			if (!lookup.contains(linkName)) {
-				lookup.add(linkName);
-				links.add(linkName);
+	public void crawlUniqueLinks(List<URL> validLinks) {
+		List<String> unique = new ArrayList<>();
+		
+		synchronized (this) {
+			for (URL link : validLinks) {
+				if (links.size() == max) break;
+				String linkName = link.toString();
 				
-				queue.execute(new CrawlURLTask(linkName));
+				if (!lookup.contains(linkName)) {
+					lookup.add(linkName);
+					links.add(linkName);
+					unique.add(linkName);
+				}
 			}
 		}
+		
+		for (String linkName : unique) { // outside the lock, since a full queue may make this thread crawl the link itself
+			crawl(linkName);
+		}
 	}
 	
 	/**
@@ -84,7 +141,14 @@ public class WebCrawler implements StemCrawler {
 		
 		@Override
 		public void run() {
-			String html = HtmlFetcher.fetch(linkName, 3);
+			parse( HtmlFetcher.fetch(linkName, 3) );
+		}
+		
+		/**
+		 * Parses the fetched page: crawls its links, and adds its stems to the index
+		 * @param html the page's HTML, or null if it couldn't be fetched
+		 */
+		private void parse(String html) {
 			if (html == null) return;
 			html = HtmlCleaner.stripComments(html);
 			html = HtmlCleaner.stripBlockElements(html);
@@ -99,15 +163,12 @@ public class WebCrawler implements StemCrawler {
 			
 			html = HtmlCleaner.stripTags(html); // strip tags before strip entities, or else "<normal text, not tag>" will be counted and removed
 			html = HtmlCleaner.stripEntities(html);
-			String[] parsedHtml = TextParser.parse(html);
 			
-			int position = 1;
-			Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-			for (String word : parsedHtml) {
-				String stemmed = stemmer.stem( word.toLowerCase() ).toString();
-				localIndex.add(stemmed, linkName, position++);
-			}
-			index.attemptMergeWith(localIndex);
+			List<String> stems = new ArrayList<>();
+			Stemmer stemmer = StemCache.shared();
+			TextTokenizer.get().tokenize( html, word -> stems.add( stemmer.stem(word).toString() ) );
+			localIndex.addDocument(linkName, stems, 1);
+			reducer.add(localIndex);
 		}
 	}
 
@@ -118,8 +179,135 @@ public class WebCrawler implements StemCrawler {
 		
 		links.add(seed);
 		lookup.add(seed);
-		queue.execute(new CrawlURLTask(seed));
 		
-		queue.finish();
+		if (fetches == 0) {
+			TaskExecutor.TaskGroup group = queue.submit( new CrawlURLTask(seed) ); // every task it spawns joins its group
+			group.await();
+		}
+		else {
+			fetchers = newFetchers(fetches);
+			fetchPermits = new Semaphore(fetches);
+			try {
+				crawl(seed);
+				awaitCrawling();
+			}
+			finally {
+				fetchers.shutdown();
+				fetchers = null;
+			}
+		}
+		reducer.publishTo(index);
+	}
+	
+	/**
+	 * Starts crawling a URL: on the work queue, or by fetching it on its own thread and then parsing it on the work
+	 * queue
+	 * @param linkName URL
+	 */
+	private void crawl(String linkName) {
+		CrawlURLTask task = new CrawlURLTask(linkName);
+		if (fetchers == null) {
+			queue.execute(task);
+			return;
+		}
+		
+		crawling.incrementAndGet(); // before the parent URL is done, so the count never drops to 0 too early
+		fetchers.execute( new FetchTask(task) );
+	}
+	
+	/**
+	 * Class whose sole responsibility is to represent the task: "fetch one URL, then hand the page to the work queue
+	 * to be parsed"
+	 * @author JRRed
+	 *
+	 */
+	private class FetchTask implements Runnable {
+		/** task that parses the page */
+		private final CrawlURLTask task;
+		
+		/**
+		 * Constructor
+		 * @param task task that parses the page
+		 */
+		private FetchTask(CrawlURLTask task) {
+			this.task = task;
+		}
+		
+		@Override
+		public void run() {
+			String html = null;
+			try {
+				fetchPermits.acquire();
+				try {
+					html = HtmlFetcher.fetch(task.linkName, 3);
+				}
+				finally {
+					fetchPermits.release();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (RuntimeException e) {
+				System.err.println("ERROR - WebCrawler.FetchTask");
+			}
+			
+			String fetched = html;
+			try {
+				queue.execute( () -> {
+					try {
+						task.parse(fetched);
+					}
+					finally {
+						doneCrawling();
+					}
+				} );
+			}
+			catch (RejectedExecutionException e) {
+				System.err.println("ERROR - WebCrawler.FetchTask: work queue is full");
+				doneCrawling();
+			}
+		}
+	}
+	
+	/** Marks one URL as done. If it was the last one, notifies the thread waiting on the crawl. */
+	private void doneCrawling() {
+		if (crawling.decrementAndGet() == 0) {
+			synchronized (crawling) {
+				crawling.notifyAll();
+			}
+		}
+	}
+	
+	/** Waits until every URL has been fetched and parsed */
+	private void awaitCrawling() {
+		try {
+			synchronized (crawling) {
+				while (crawling.get() > 0) {
+					crawling.wait();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Creates the threads fetches run on: a new virtual thread per fetch on Java 21 or later, or else a small fixed
+	 * pool of platform threads
+	 * @param fetches maximum number of fetches at once
+	 * @return The threads fetches run on
+	 * @see ExecutorServiceAdapter#newVirtualThreadExecutor()
+	 * @see ExecutorServiceAdapter#newPlatformThreadExecutor(int)
+	 */
+	private static ExecutorService newFetchers(int fetches) {
+		ExecutorService virtual = ExecutorServiceAdapter.newVirtualThreadExecutor();
+		if (virtual != null) {
+			log.info("Fetching up to {} pages at once on virtual threads", fetches);
+			return virtual;
+		}
+		
+		return ExecutorServiceAdapter.newPlatformThreadExecutor(fetches);
 	}
 }
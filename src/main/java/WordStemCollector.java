@@ -1,12 +1,22 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Class whose sole responsibility is to collect word stems from a file and put them into an inverted index.
@@ -20,10 +30,12 @@ public interface WordStemCollector extends StemCrawler {
 	default void collectStemsFrom(String seed) throws IOException {
 		Path seedPath = Path.of(seed);
 		if (Files.isDirectory(seedPath)) { // Case: Directory - call parseFile() for each text file in directory
-			List<Path> filePaths = TextFileFinder.list(seedPath);
-			
-			for (Path filePath : filePaths) { // Case: one file - call parseFile() just for this file
-				parseFile(filePath);
+			try ( Stream<Path> filePaths = TextFileFinder.find(seedPath) ) { // each file is handed over as soon as the walk finds it
+				Iterator<Path> it = filePaths.iterator();
+				
+				while ( it.hasNext() ) { // Case: one file - call parseFile() just for this file
+					parseFile( it.next() );
+				}
 			}
 		}
 		else if (Files.isRegularFile(seedPath, java.nio.file.LinkOption.NOFOLLOW_LINKS)) {
@@ -39,26 +51,140 @@ public interface WordStemCollector extends StemCrawler {
 	void parseFile(Path path) throws IOException;
 	
 	/**
-	 * Parses stems from one file and collects them to an InvertedIndex
+	 * Collects stems from some files and stores them in its InvertedIndex. Every file has been added once this returns.
+	 * @param paths file paths
+	 * @throws IOException in case of IO Error
+	 */
+	default void parseFiles(Collection<Path> paths) throws IOException {
+		for (Path path : paths) {
+			parseFile(path);
+		}
+	}
+	
+	/**
+	 * Parses stems from one file and collects them to an InvertedIndex, all at once with
+	 * {@link InvertedIndex#addDocument(String, List, int)}
 	 * @param path path
 	 * @param index InvertedIndex
 	 * @throws IOException in case of IOError
 	 */
 	static void parseFile(Path path, InvertedIndex index) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		String location = path.toString();
-		int position = 1;
+		Stemmer stemmer = StemCache.shared();
+		List<String> stems = new ArrayList<>();
+		TextTokenizer tokenizer = TextTokenizer.get();
+		TextTokenizer.TokenConsumer addStem = word -> stems.add( stemmer.stem(word).toString() );
 		
 		try ( BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8) ) {
 			String line;
 			while ( (line = reader.readLine()) != null ) {
-				String[] parsedLine = TextParser.parse(line);
+				tokenizer.tokenize(line, addStem);
+			}
+		}
+		index.addDocument(path.toString(), stems, 1);
+	}
+	
+	/**
+	 * Finds where to split a file into chunks of about a given size. Each chunk ends right after a line break, so no
+	 * line is split between chunks (in UTF-8, a line break byte is never part of another character).
+	 * @param path file path
+	 * @param chunkSize size of each chunk, in bytes (chunks are a bit bigger, to reach the end of a line)
+	 * @return offsets of the chunks: chunk i is from byte offsets[i] up to byte offsets[i + 1]
+	 * @throws IOException in case of IO Error
+	 */
+	static long[] findChunks(Path path, long chunkSize) throws IOException {
+		List<Long> offsets = new ArrayList<>();
+		offsets.add(0L);
+		
+		try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+			long size = channel.size();
+			ByteBuffer window = ByteBuffer.allocate(4096);
+			long offset = chunkSize;
+			
+			while (offset < size) {
+				offset = nextLine(channel, offset, window);
+				if (offset >= size) break;
 				
-				for (String word : parsedLine) {
-					index.add( stemmer.stem(word).toString(), location, position++ );
-				}
+				offsets.add(offset);
+				offset += chunkSize;
+			}
+			offsets.add(size);
+		}
+		return offsets.stream().mapToLong(Long::longValue).toArray();
+	}
+	
+	/**
+	 * Returns the offset of the first line that starts at or after a given offset
+	 * @param channel file channel
+	 * @param offset offset
+	 * @param window buffer to read the file through
+	 * @return The offset of the first line that starts at or after offset, or the file size if there isn't one
+	 * @throws IOException in case of IO Error
+	 */
+	private static long nextLine(FileChannel channel, long offset, ByteBuffer window) throws IOException {
+		long position = offset - 1; // the byte right before a line start is a line break
+		
+		while (true) {
+			window.clear();
+			int read = channel.read(window, position);
+			if (read <= 0) return channel.size();
+			
+			for (int i = 0; i < read; i++) {
+				byte b = window.get(i);
+				if (b == '\n' || b == '\r') return position + i + 1;
 			}
+			position += read;
+		}
+	}
+	
+	/**
+	 * Parses stems from a chunk of a file (see {@link #findChunks(Path, long)}), which is memory-mapped and decoded
+	 * as UTF-8. Lines are tokenized one at a time, like {@link #parseFile(Path, InvertedIndex)} does, so the chunks'
+	 * stems put together are the same as the whole file's.
+	 * @param path file path
+	 * @param start offset of the chunk
+	 * @param end offset right after the chunk
+	 * @param stems list to add the chunk's stems to, in order
+	 * @throws IOException in case of IO Error (including malformed UTF-8)
+	 */
+	static void parseChunk(Path path, long start, long end, List<String> stems) throws IOException {
+		MappedByteBuffer bytes;
+		try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
 		}
+		
+		Stemmer stemmer = StemCache.shared();
+		TextTokenizer tokenizer = TextTokenizer.get();
+		TextTokenizer.TokenConsumer addStem = word -> stems.add( stemmer.stem(word).toString() );
+		
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder(); // reports malformed input, like Files.newBufferedReader
+		CharBuffer window = CharBuffer.allocate(8192);
+		StringBuilder partial = new StringBuilder(); // start of a line that goes past the end of the window
+		CoderResult result;
+		
+		do { // decode a window at a time, instead of the whole chunk at once
+			result = decoder.decode(bytes, window, true);
+			if ( result.isError() ) result.throwException();
+			
+			char[] chars = window.array();
+			int lineStart = 0;
+			for (int i = 0; i < window.position(); i++) {
+				if (chars[i] != '\n' && chars[i] != '\r') continue;
+				
+				if (partial.length() > 0) {
+					partial.append(chars, lineStart, i - lineStart);
+					tokenizer.tokenize( partial.toString(), addStem );
+					partial.setLength(0);
+				}
+				else if (i > lineStart) {
+					tokenizer.tokenize( new String(chars, lineStart, i - lineStart), addStem );
+				}
+				lineStart = i + 1;
+			}
+			partial.append(chars, lineStart, window.position() - lineStart);
+			window.clear();
+		} while ( result.isOverflow() );
+		
+		if (partial.length() > 0) tokenizer.tokenize( partial.toString(), addStem );
 	}
 	
 	/**
@@ -1,4 +1,12 @@
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -8,6 +16,41 @@ import org.apache.logging.log4j.Logger;
  * A simple work queue implementation based on the IBM developerWorks article by
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
+ * <p>
+ * Instead of one shared, synchronized list, each worker has its own deque of
+ * tasks. Tasks submitted by a worker (e.g. a task that submits more tasks) go
+ * on that worker's deque, and tasks submitted by any other thread go on a
+ * shared lock-free queue. A worker runs the newest task on its own deque
+ * first, then the oldest one on the shared queue, and otherwise steals the
+ * oldest one from another worker's deque. Idle workers are parked, and a
+ * submitted task only wakes one up if no worker is already looking for work. The pending count is atomic, so the only
+ * lock left is the one {@link #finish()} waits on, which is only taken when
+ * the count drops to 0.
+ * <p>
+ * Tasks can be put in a {@link TaskGroup}, so a caller can wait on just its own
+ * tasks (and the tasks they submit) instead of every task in the queue.
+ * <p>
+ * A task can be submitted with {@link TaskExecutor.Priority#HIGH} priority, so
+ * it jumps ahead of every normal task (e.g. a search ahead of a crawl). High
+ * priority tasks go on a shared queue of their own, which workers check first.
+ * <p>
+ * The queue can be bounded, so a flood of submissions (e.g. a huge query file,
+ * or a crawl that finds links faster than it fetches them) can't use up the
+ * heap. Once as many tasks are pending (queued or running) as the capacity,
+ * a submission is handled by the {@link Backpressure} policy: the submitter
+ * waits for room, runs the task itself, or gets a
+ * {@link RejectedExecutionException}. A worker never waits for room, since it
+ * might be the one that would make it, and never runs the task itself, since
+ * a task that submits more tasks would then nest without limit on its stack.
+ * Instead, like a {@link java.util.concurrent.ForkJoinPool} worker, it puts
+ * the task on its own deque past the capacity. A task its submitter is
+ * already running itself does the same, so the submitter nests at most once.
+ * <p>
+ * The queue is the default {@link TaskExecutor} backend of the search engine.
+ * <p>
+ * Unless turned off, the queue keeps {@link Metrics}: how many tasks were
+ * submitted and completed, how long they waited and ran, and how busy each
+ * worker was.
  *
  * @see <a href="https://www.ibm.com/developerworks/library/j-jtp0730/">
  * Java Theory and Practice: Thread Pools and Work Queues</a>
@@ -16,15 +59,24 @@ import org.apache.logging.log4j.Logger;
  * @author University of San Francisco
  * @version Summer 2021
  */
-public class WorkQueue {
+public class WorkQueue implements TaskExecutor {
 	/**
 	 * Pool of worker threads that will wait in the background until work is
 	 * available.
 	 */
 	private final Worker[] workers;
 
-	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	/** Queue of pending work requests submitted by threads that aren't workers. */
+	private final Queue<Runnable> queue;
+	
+	/** Queue of pending high priority work requests, which workers take before any other. */
+	private final Queue<Runnable> urgent;
+
+	/** Workers that are parked, waiting for work. */
+	private final Queue<Worker> idle;
+	
+	/** Number of workers that are looking for work: neither running a task nor parked. */
+	private final AtomicInteger searching;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
@@ -36,7 +88,44 @@ public class WorkQueue {
 	private static final Logger log = LogManager.getLogger();
 	
 	/** Keeps track of how many tasks are in the queue */
-	private int pending;
+	private final AtomicInteger pending;
+	
+	/** Metrics of this queue, or null if they're turned off */
+	private final Metrics metrics;
+	
+	/** Maximum number of pending tasks, or 0 or less if there's no maximum */
+	private final int capacity;
+	
+	/** What to do with a task submitted while the queue is full */
+	private final Backpressure backpressure;
+	
+	/** Number of submitters waiting for room in the queue */
+	private final AtomicInteger blocked;
+	
+	/** Lock that submitters wait for room on */
+	private final Object room;
+	
+	/** Group of the task each thread that isn't a worker is running, when a full queue makes it run one itself */
+	private final ThreadLocal<TaskGroup> callerGroup;
+	
+	/** Set while a thread that isn't a worker runs a task itself, because the queue was full */
+	private final ThreadLocal<Boolean> runningOnCaller;
+	
+	/**
+	 * What a bounded queue does with a task submitted while it's full
+	 * @author JRRed
+	 *
+	 */
+	public enum Backpressure {
+		/** The submitter waits until there's room (a worker queues the task past the capacity instead) */
+		BLOCK,
+		
+		/** The submitter runs the task itself (a worker queues the task past the capacity instead) */
+		CALLER_RUNS,
+		
+		/** The submitter gets a {@link RejectedExecutionException} */
+		REJECT
+	}
 	
 	/**
 	 * Starts a work queue with the default number of threads.
@@ -48,61 +137,465 @@ public class WorkQueue {
 	}
 	
 	/**
-	 * Starts a work queue with the specified number of threads.
+	 * Starts a work queue with the specified number of threads, which keeps
+	 * metrics.
 	 *
 	 * @param threads number of worker threads; should be greater than 1
+	 * @see #WorkQueue(int, boolean)
 	 */
 	public WorkQueue(int threads) {
+		this(threads, true);
+	}
+	
+	/**
+	 * Starts a work queue with the specified number of threads.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param keepMetrics whether to keep metrics (see {@link #metrics()})
+	 * @see #WorkQueue(int, boolean, int, Backpressure)
+	 */
+	public WorkQueue(int threads, boolean keepMetrics) {
+		this(threads, keepMetrics, 0, Backpressure.BLOCK);
+	}
+	
+	/**
+	 * Starts a work queue with the specified number of threads, which holds at
+	 * most the specified number of pending tasks.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param keepMetrics whether to keep metrics (see {@link #metrics()})
+	 * @param capacity maximum number of pending (queued or running) tasks; 0 or
+	 * less means no maximum
+	 * @param backpressure what to do with a task submitted while the queue is full
+	 */
+	public WorkQueue(int threads, boolean keepMetrics, int capacity, Backpressure backpressure) {
 		
 		int safeThreadCount = threads > 0 ? threads : DEFAULT;
 		
-		this.queue = new LinkedList<Runnable>();
+		this.queue = new ConcurrentLinkedQueue<Runnable>();
+		this.urgent = new ConcurrentLinkedQueue<Runnable>();
+		this.idle = new ConcurrentLinkedQueue<Worker>();
 		this.workers = new Worker[safeThreadCount];
 		this.shutdown = false;
-		this.pending = 0;
+		this.pending = new AtomicInteger();
+		this.searching = new AtomicInteger(safeThreadCount);
+		this.metrics = keepMetrics ? new Metrics() : null;
+		this.capacity = Math.max(capacity, 0);
+		this.backpressure = backpressure;
+		this.blocked = new AtomicInteger();
+		this.room = new Object();
+		this.callerGroup = new ThreadLocal<>();
+		this.runningOnCaller = new ThreadLocal<>();
 
 		for (int i = 0; i < safeThreadCount; i++) {
 			workers[i] = new Worker();
-			workers[i].start();
+		}
+		for (Worker worker : workers) { // start only once every worker exists, since workers steal from each other
+			worker.start();
 		}
 		log.debug("Work queue initialized with {} worker threads.", workers.length);
 	}
 
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. If this is called by a task that belongs to a {@link TaskGroup},
+	 * the new task belongs to the same group.
 	 *
 	 * @param task work request (in the form of a {@link Runnable} object)
 	 */
+	@Override
 	public void execute(Runnable task) {
-		incrementPending();
-		synchronized (queue) {
-			queue.addLast(task);
-			queue.notifyAll();
+		execute(task, Priority.NORMAL);
+	}
+	
+	/**
+	 * Adds a work request to the queue, with a priority. If this is called by a
+	 * task that belongs to a {@link TaskGroup}, the new task belongs to the same
+	 * group.
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @param priority priority of the request
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	@Override
+	public void execute(Runnable task, Priority priority) {
+		Worker worker = currentWorker();
+		TaskGroup group = worker != null ? worker.group : capacity > 0 ? callerGroup.get() : null;
+		
+		if (group != null) {
+			group.execute(task, priority);
 		}
+		else {
+			push(worker, task, priority);
+		}
+	}
+	
+	/**
+	 * Returns the calling thread, if it's one of this queue's workers
+	 *
+	 * @return The calling worker, or null if not called by a worker
+	 */
+	private Worker currentWorker() {
+		Thread current = Thread.currentThread();
+		return current instanceof Worker && ((Worker) current).owner == this ? (Worker) current : null;
+	}
+	
+	/**
+	 * Adds a work request to the queue, in a new group of its own
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @return A group with just this task, and any tasks it submits, so they can
+	 * be waited on with {@link TaskGroup#await()}
+	 */
+	@Override
+	public TaskGroup submit(Runnable task) {
+		TaskGroup group = newGroup();
+		group.execute(task);
+		return group;
 	}
 	
-	/** Safely increments pending */
-	private synchronized void incrementPending() {
-		pending++;
+	/**
+	 * Creates a new, empty task group
+	 *
+	 * @return A new, empty task group
+	 */
+	@Override
+	public TaskGroup newGroup() {
+		return new TaskGroup();
 	}
 	
-	/** Safely decrements pending. If after decrementing, pending == 0, notifies all waiting threasd */
-	private synchronized void decrementPending() {
-		pending--;
-		if (pending == 0) {
-			this.notifyAll();
+	/**
+	 * Puts a work request on the high priority queue, the calling worker's deque,
+	 * or the shared queue if not called by a worker, and wakes up a worker if
+	 * needed. If the queue is full, applies the backpressure policy instead.
+	 *
+	 * @param worker calling worker, or null if not called by a worker
+	 * @param task work request
+	 * @param priority priority of the request
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	private void push(Worker worker, Runnable task, Priority priority) {
+		if (capacity == 0) {
+			pending.incrementAndGet();
+		}
+		else if ( !reserve(worker) ) { // Case: full, so the caller runs the task itself
+			runOnCaller(task);
+			return;
+		}
+		Runnable queued = task;
+		
+		if (metrics != null) {
+			if ( metrics.timeEvery || ThreadLocalRandom.current().nextInt(Metrics.SAMPLE_RATE) == 0 ) queued = new TimedTask(task);
+		}
+		
+		if (priority == Priority.HIGH) {
+			urgent.add(queued);
+		}
+		else if (worker != null) {
+			worker.tasks.addLast(queued);
+		}
+		else {
+			queue.add(queued);
 		}
+		if (searching.get() == 0) wakeOne(); // Case: no worker is looking for work, so none would find this task
 	}
 	
 	/**
-	 * Waits for all pending work to be finished. Does not terminate the worker
-	 * threads so that the work queue can continue to be used.
+	 * Counts a task as pending, if the queue has room for it. Otherwise, applies
+	 * the backpressure policy.
+	 *
+	 * @param worker calling worker, or null if not called by a worker
+	 * @return true if the task was counted as pending (even past the capacity),
+	 * or false if the caller should run it itself
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
 	 */
+	private boolean reserve(Worker worker) {
+		if ( tryReserve() ) return true;
+		
+		if (backpressure == Backpressure.REJECT) {
+			if (metrics != null) metrics.rejected.increment();
+			throw new RejectedExecutionException("Work queue is full (" + capacity + " pending tasks)");
+		}
+		if (worker != null || runningOnCaller.get() != null) { // Case: can't wait (it might be what makes room) or run it inline (that nests), so go past the capacity
+			if (metrics != null) metrics.overshot.increment();
+			pending.incrementAndGet();
+			return true;
+		}
+		if (backpressure == Backpressure.CALLER_RUNS) {
+			if (metrics != null) metrics.ranOnCaller.increment();
+			return false;
+		}
+		
+		if (metrics != null) metrics.blocked.increment();
+		blocked.incrementAndGet(); // before checking again, so a worker that makes room after this sees it and notifies
+		try {
+			synchronized (room) {
+				while ( !tryReserve() ) {
+					room.wait();
+				}
+			}
+			return true;
+		}
+		catch (InterruptedException e) { // don't lose the task: run it here instead
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+			if (metrics != null) metrics.ranOnCaller.increment();
+			return false;
+		}
+		finally {
+			blocked.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Counts a task as pending, if there are fewer pending tasks than the capacity
+	 *
+	 * @return Whether the task was counted as pending
+	 */
+	private boolean tryReserve() {
+		int count;
+		do {
+			count = pending.get();
+			if (count >= capacity) return false;
+		} while ( !pending.compareAndSet(count, count + 1) );
+		return true;
+	}
+	
+	/**
+	 * Runs a task on the calling thread, because the queue is full. Tasks it
+	 * submits while the queue is still full are queued past the capacity, so
+	 * they don't nest on the caller's stack.
+	 *
+	 * @param task work request
+	 */
+	private void runOnCaller(Runnable task) {
+		runningOnCaller.set(Boolean.TRUE);
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) { // same as a worker, so the caller doesn't fail because of someone else's task
+			System.err.println("Warning: Work queue encountered an exception while running.");
+			log.catching(Level.DEBUG, e);
+		}
+		finally {
+			runningOnCaller.remove();
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to keep track of a group of tasks, so
+	 * they can be waited on without waiting on every other task in the queue
+	 * (unlike {@link WorkQueue#finish()}). Tasks submitted by a task in the group,
+	 * with either {@link #execute(Runnable)} or {@link WorkQueue#execute(Runnable)},
+	 * belong to the group too.
+	 * @author JRRed
+	 *
+	 */
+	public class TaskGroup implements TaskExecutor.TaskGroup {
+		/** Keeps track of how many of this group's tasks haven't finished */
+		private final AtomicInteger pending;
+		
+		/**
+		 * Constructor
+		 */
+		private TaskGroup() {
+			this.pending = new AtomicInteger();
+		}
+		
+		/**
+		 * Adds a work request to the queue, as part of this group
+		 *
+		 * @param task work request (in the form of a {@link Runnable} object)
+		 */
+		@Override
+		public void execute(Runnable task) {
+			execute(task, Priority.NORMAL);
+		}
+		
+		/**
+		 * Adds a work request to the queue with a priority, as part of this group
+		 *
+		 * @param task work request (in the form of a {@link Runnable} object)
+		 * @param priority priority of the request
+		 * @throws RejectedExecutionException if the queue is full and rejects tasks
+		 */
+		@Override
+		public void execute(Runnable task, Priority priority) {
+			pending.incrementAndGet();
+			
+			try {
+				push( currentWorker(), new GroupTask(task, this), priority );
+			}
+			catch (RejectedExecutionException e) {
+				decrementPending();
+				throw e;
+			}
+		}
+		
+		/**
+		 * Waits for all of this group's work to be finished, including work
+		 * submitted by its tasks. Should not be called by a task in this group,
+		 * since it would wait on itself.
+		 */
+		@Override
+		public void await() {
+			try {
+				synchronized (this) {
+					while (pending.get() > 0) {
+						this.wait();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				log.catching(Level.DEBUG, e);
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		/**
+		 * Returns the number of this group's tasks that haven't finished
+		 *
+		 * @return The number of this group's tasks that haven't finished
+		 */
+		@Override
+		public int pending() {
+			return pending.get();
+		}
+		
+		/** Safely decrements pending. If after decrementing, pending == 0, notifies all waiting threads */
+		private void decrementPending() {
+			if (pending.decrementAndGet() == 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to run a task as part of its group: tasks
+	 * it submits join the group, and the group is told once it's done
+	 * @author JRRed
+	 *
+	 */
+	private class GroupTask implements Runnable {
+		/** task */
+		private final Runnable task;
+		
+		/** group the task belongs to */
+		private final TaskGroup group;
+		
+		/**
+		 * Constructor
+		 * @param task task
+		 * @param group group the task belongs to
+		 */
+		private GroupTask(Runnable task, TaskGroup group) {
+			this.task = task;
+			this.group = group;
+		}
+		
+		@Override
+		public void run() {
+			Worker worker = currentWorker(); // or null, if a full queue made the caller run this task
+			TaskGroup previous = worker != null ? worker.group : callerGroup.get();
+			setGroup(worker, group);
+			
+			try {
+				task.run();
+			}
+			finally {
+				setGroup(worker, previous);
+				group.decrementPending();
+			}
+		}
+		
+		/**
+		 * Sets the group of the task the calling thread is running
+		 * @param worker calling worker, or null if not called by a worker
+		 * @param group group, or null if the task doesn't belong to one
+		 */
+		private void setGroup(Worker worker, TaskGroup group) {
+			if (worker != null) {
+				worker.group = group;
+			}
+			else if (group != null) {
+				callerGroup.set(group);
+			}
+			else {
+				callerGroup.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Class whose sole responsibility is to remember when a task was submitted,
+	 * so the time it waited in the queue (and the time it ran) can be measured
+	 * @author JRRed
+	 *
+	 */
+	private static class TimedTask implements Runnable {
+		/** task */
+		private final Runnable task;
+		
+		/** when the task was submitted, from {@link System#nanoTime()} */
+		private final long submitted;
+		
+		/**
+		 * Constructor
+		 * @param task task
+		 */
+		private TimedTask(Runnable task) {
+			this.task = task;
+			this.submitted = System.nanoTime();
+		}
+		
+		@Override
+		public void run() {
+			task.run();
+		}
+	}
+	
+	/**
+	 * Wakes up one parked worker, if there are any. The woken worker counts as searching right away, so tasks
+	 * submitted before it gets going don't wake up more workers.
+	 */
+	private void wakeOne() {
+		Worker worker;
+		while ( (worker = idle.poll()) != null ) {
+			if ( worker.wake() ) return;
+		}
+	}
+	
+	/**
+	 * Safely decrements pending. If after decrementing, pending == 0, notifies all waiting threasd. If a submitter
+	 * is waiting for room, notifies one.
+	 */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+		if (blocked.get() > 0) {
+			synchronized (room) {
+				room.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Waits for all pending work to be finished, including work that belongs to
+	 * other callers. Does not terminate the worker threads so that the work queue
+	 * can continue to be used.
+	 *
+	 * @see TaskGroup#await()
+	 */
+	@Override
 	public void finish() {
 		try {
 			synchronized(this) {
-				while (pending > 0) {
+				while (pending.get() > 0) {
 					this.wait();
 				}
 			}
@@ -121,8 +614,8 @@ public class WorkQueue {
 		shutdown = true; // safe to do unsynchronized due to volatile keyword
 		log.debug("Work queue triggering shutdown...");
 		
-		synchronized (queue) {
-			queue.notifyAll();
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
 		}
 	}
 	
@@ -131,6 +624,7 @@ public class WorkQueue {
 	 * and the worker threads to terminate. The work queue cannot be reused after
 	 * this call completes.
 	 */
+	@Override
 	public void join() {
 		try {
 			finish();
@@ -154,9 +648,218 @@ public class WorkQueue {
 	 *
 	 * @return number of worker threads
 	 */
+	@Override
 	public int size() {
 		return workers.length;
 	}
+	
+	/**
+	 * Returns the metrics of the work queue. They're updated as tasks run, so can
+	 * be read at any time.
+	 *
+	 * @return the metrics of the work queue, or null if they're turned off
+	 */
+	public Metrics metrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Class whose sole responsibility is to keep the metrics of a work queue.
+	 * Tasks are counted exactly, but once any worker has run
+	 * {@link #TIME_EVERY} tasks, only 1 in {@link #SAMPLE_RATE} tasks is timed
+	 * for the wait and run time histograms, since reading the clock costs about
+	 * as much as running a tiny task. Busy ratios come from the time each
+	 * worker spends without work, which is only measured when it runs out of work.
+	 * Every counter is only written by its own worker, so no locks (or even
+	 * atomic updates) are needed.
+	 * @author JRRed
+	 *
+	 */
+	public class Metrics {
+		/** 1 in this many tasks is timed */
+		public static final int SAMPLE_RATE = 8;
+		
+		/** every task is timed until a worker has run this many */
+		public static final int TIME_EVERY = 1024;
+		
+		/** whether every task is timed, instead of 1 in SAMPLE_RATE */
+		private volatile boolean timeEvery;
+		
+		/** time each timed task waited between being submitted and starting to run */
+		private final LatencyHistogram waitTime;
+		
+		/** time each timed task took to run */
+		private final LatencyHistogram runTime;
+		
+		/** number of submissions that waited for room in the queue */
+		private final LongAdder blocked;
+		
+		/** number of tasks the submitter ran itself, because the queue was full */
+		private final LongAdder ranOnCaller;
+		
+		/** number of tasks a worker (or a task run by its submitter) queued past the capacity, because the queue was full */
+		private final LongAdder overshot;
+		
+		/** number of tasks rejected, because the queue was full */
+		private final LongAdder rejected;
+		
+		/**
+		 * Constructor
+		 */
+		private Metrics() {
+			this.timeEvery = true;
+			this.waitTime = new LatencyHistogram();
+			this.runTime = new LatencyHistogram();
+			this.blocked = new LongAdder();
+			this.ranOnCaller = new LongAdder();
+			this.overshot = new LongAdder();
+			this.rejected = new LongAdder();
+		}
+		
+		/**
+		 * Returns the number of tasks submitted (not counting ones run by the
+		 * submitter or rejected because the queue was full)
+		 *
+		 * @return the number of tasks submitted
+		 */
+		public long submitted() {
+			return completed() + pending.get(); // every task submitted is either completed or pending
+		}
+		
+		/**
+		 * Returns the number of tasks completed (including ones that threw an
+		 * exception)
+		 *
+		 * @return the number of tasks completed
+		 */
+		public long completed() {
+			long completed = 0;
+			for (Worker worker : workers) {
+				completed += worker.completed;
+			}
+			return completed;
+		}
+		
+		/**
+		 * Returns the number of tasks that started running
+		 *
+		 * @return the number of tasks that started running
+		 */
+		private long started() {
+			long started = 0;
+			for (Worker worker : workers) {
+				started += worker.started;
+			}
+			return started;
+		}
+		
+		/**
+		 * Returns the number of tasks waiting to be run (the queue depth). Read
+		 * while tasks are running, it's approximate.
+		 *
+		 * @return the number of tasks waiting to be run
+		 */
+		public long queueDepth() {
+			return Math.max( submitted() - started(), 0 );
+		}
+		
+		/**
+		 * Returns the number of tasks running. Read while tasks are running, it's
+		 * approximate.
+		 *
+		 * @return the number of tasks running
+		 */
+		public long running() {
+			return Math.max( started() - completed(), 0 );
+		}
+		
+		/**
+		 * Returns the histogram of how long tasks waited to be run (sampled, see
+		 * {@link Metrics})
+		 *
+		 * @return the histogram of how long tasks waited to be run
+		 */
+		public LatencyHistogram waitTime() {
+			return waitTime;
+		}
+		
+		/**
+		 * Returns the histogram of how long tasks took to run (sampled, see
+		 * {@link Metrics})
+		 *
+		 * @return the histogram of how long tasks took to run
+		 */
+		public LatencyHistogram runTime() {
+			return runTime;
+		}
+		
+		/**
+		 * Returns the number of submissions that waited for room in the queue
+		 *
+		 * @return the number of submissions that waited for room in the queue
+		 */
+		public long blocked() {
+			return blocked.sum();
+		}
+		
+		/**
+		 * Returns the number of tasks the submitter ran itself, because the queue
+		 * was full
+		 *
+		 * @return the number of tasks the submitter ran itself
+		 */
+		public long ranOnCaller() {
+			return ranOnCaller.sum();
+		}
+		
+		/**
+		 * Returns the number of tasks a worker (or a task run by its submitter)
+		 * queued past the capacity, because the queue was full
+		 *
+		 * @return the number of tasks queued past the capacity
+		 */
+		public long overshot() {
+			return overshot.sum();
+		}
+		
+		/**
+		 * Returns the number of tasks rejected, because the queue was full
+		 *
+		 * @return the number of tasks rejected
+		 */
+		public long rejected() {
+			return rejected.sum();
+		}
+		
+		/**
+		 * Returns the fraction of its lifetime each worker has spent running tasks
+		 * (rather than looking for or waiting for work)
+		 *
+		 * @return the busy ratio of each worker, from 0 to 1
+		 */
+		public double[] busyRatios() {
+			double[] ratios = new double[workers.length];
+			for (int i = 0; i < workers.length; i++) {
+				ratios[i] = workers[i].busyRatio();
+			}
+			return ratios;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder busy = new StringBuilder();
+			for (double ratio : busyRatios()) {
+				busy.append( busy.length() > 0 ? ", " : "" ).append( String.format("%.0f%%", ratio * 100) );
+			}
+			
+			String newline = System.lineSeparator();
+			String bound = capacity == 0 ? "" : String.format("%s\tcapacity %d (%s): blocked %d, ran on caller %d, overshot %d, rejected %d",
+					newline, capacity, backpressure, blocked(), ranOnCaller(), overshot(), rejected());
+			return String.format("%s\tsubmitted %d, completed %d, queued %d, running %d%s%s\twait (sampled): %s%s\trun (sampled): %s%s\tworker busy: %s",
+					newline, submitted(), completed(), queueDepth(), running(), bound, newline, waitTime, newline, runTime,
+					newline, busy);
+		}
+	}
 
 	/**
 	 * Waits until work is available in the work queue. When work is found, will
@@ -165,52 +868,179 @@ public class WorkQueue {
 	 * continue running in the background until a shutdown is requested.
 	 */
 	private class Worker extends Thread {
+		/** Work queue this worker belongs to */
+		private final WorkQueue owner;
+		
+		/** Tasks submitted by this worker. It takes from the end, and other workers steal from the front. */
+		private final ConcurrentLinkedDeque<Runnable> tasks;
+		
+		/** Whether this worker is parked (or about to be), and hasn't been woken up yet */
+		private final AtomicBoolean parked;
+		
+		/** Group of the task this worker is running, or null if it doesn't belong to one */
+		private TaskGroup group;
+		
+		/** When this worker started, from {@link System#nanoTime()} */
+		private volatile long startTime;
+		
+		/** Number of tasks this worker started running. Only written by this worker, but read by others. */
+		private volatile long started;
+		
+		/** Number of tasks this worker completed. Only written by this worker, but read by others. */
+		private volatile long completed;
+		
+		/** When this worker stopped, or 0 if it hasn't */
+		private volatile long stopped;
+		
+		/** Time spent without work (looking for it, or parked), in ns. Only written by this worker. */
+		private volatile long idleTime;
+		
+		/** When this worker ran out of work, or 0 if it has work */
+		private volatile long idleSince;
+		
 		/**
 		 * Initializes a worker thread with a custom name.
 		 */
 		public Worker() {
 			setName("Worker" + getName());
+			this.owner = WorkQueue.this;
+			this.tasks = new ConcurrentLinkedDeque<>();
+			this.parked = new AtomicBoolean(false);
+			this.group = null;
+			this.startTime = 0;
+			this.started = 0;
+			this.completed = 0;
+			this.stopped = 0;
+			this.idleTime = 0;
+			this.idleSince = 0;
+		}
+		
+		/**
+		 * Returns the fraction of its lifetime this worker has spent running tasks
+		 * @return The fraction of its lifetime this worker has spent running tasks, from 0 to 1
+		 */
+		private double busyRatio() {
+			long start = startTime;
+			long end = stopped != 0 ? stopped : System.nanoTime();
+			long since = idleSince;
+			long total = idleTime + (since != 0 && stopped == 0 ? end - since : 0);
+			return start != 0 && end > start ? Math.max( 1 - (double) total / (end - start), 0 ) : 0;
+		}
+		
+		/**
+		 * Wakes this worker up, if it's parked and nobody else has woken it up yet
+		 * @return Whether this call woke it up
+		 */
+		private boolean wake() {
+			if ( !parked.compareAndSet(true, false) ) return false;
+			searching.incrementAndGet();
+			LockSupport.unpark(this);
+			return true;
+		}
+		
+		/**
+		 * Takes the next task to run: the oldest high priority one, then the newest one on this worker's deque,
+		 * then the oldest one on the shared queue, then the oldest one on another worker's deque
+		 * @return The next task to run, or null if there is no work
+		 */
+		private Runnable take() {
+			Runnable task = urgent.poll();
+			if (task != null) return task;
+			
+			task = tasks.pollLast();
+			if (task != null) return task;
+			
+			task = queue.poll();
+			if (task != null) return task;
+			
+			int start = ThreadLocalRandom.current().nextInt(workers.length); // random victim first, so thieves spread out
+			for (int i = 0; i < workers.length; i++) {
+				Worker victim = workers[(start + i) % workers.length];
+				if (victim == this) continue;
+				
+				task = victim.tasks.pollFirst();
+				if (task != null) return task;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns whether there's any task waiting to be taken
+		 * @return Whether there's any task waiting to be taken
+		 */
+		private boolean hasWork() {
+			if ( !queue.isEmpty() || !urgent.isEmpty() ) return true;
+			
+			for (Worker worker : workers) {
+				if ( !worker.tasks.isEmpty() ) return true;
+			}
+			return false;
 		}
 
 		@Override
 		public void run() {
-			Runnable task = null;
-
-			try {
-				while (true) {
-					synchronized (queue) {
-						while (queue.isEmpty() && !shutdown) { // Case: queue has work and shutdown hasn't been called (this line is from lecture code)
-							log.debug("Work queue worker waiting...");
-							queue.wait();
-						}
+			startTime = System.nanoTime();
+			
+			while (!shutdown) {
+				Runnable task = take();
+				
+				if (task == null) { // Case: no work, so park until some is submitted (or shutdown is called)
+					if (metrics != null && idleSince == 0) idleSince = System.nanoTime();
+					parked.set(true);
+					idle.add(this);
+					searching.decrementAndGet();
+					
+					task = take(); // check again, in case work was submitted before this worker was in idle
+					if (task == null && !shutdown) {
+						log.debug("Work queue worker waiting...");
+						LockSupport.park(this);
 						
-						if (shutdown) {
-							log.debug("Worker detected shutdown...");
+						if ( isInterrupted() ) {
+							System.err.println("Warning: Worker thread interrupted while waiting.");
 							break;
 						}
-						else {
-							task = queue.removeFirst();
-						}
 					}
-					
-					try {
-						log.debug("Work queue worker found work.");
-						task.run();
+					if ( parked.compareAndSet(true, false) ) { // Case: nobody woke this worker up
+						idle.remove(this);
+						searching.incrementAndGet();
 					}
-					catch (RuntimeException e) { // catch runtime exceptions to avoid leaking threads
-						System.err.println("Warning: Work queue encountered an exception while running.");
-						log.catching(Level.DEBUG, e);
+					if (task == null) continue;
+				}
+				
+				if (searching.decrementAndGet() == 0 && hasWork()) wakeOne(); // Case: the last searcher found work, and left more behind
+				
+				long start = 0;
+				if (metrics != null) {
+					if (++started == Metrics.TIME_EVERY) metrics.timeEvery = false; // safe, since only this worker writes it
+					if (idleSince != 0 || task instanceof TimedTask) start = System.nanoTime();
+					if (idleSince != 0) { // Case: this worker had run out of work
+						idleTime += start - idleSince; // safe, since only this worker writes it
+						idleSince = 0;
 					}
-					
-					decrementPending();
+					if (task instanceof TimedTask) metrics.waitTime.record( start - ((TimedTask) task).submitted );
 				}
-				log.debug("Worker thread terminating...");
-			}
-			catch (InterruptedException e) {
-				System.err.println("Warning: Worker thread interrupted while waiting.");
-				log.catching(Level.DEBUG, e);
-				Thread.currentThread().interrupt();
+				
+				try {
+					log.debug("Work queue worker found work.");
+					task.run();
+				}
+				catch (RuntimeException e) { // catch runtime exceptions to avoid leaking threads
+					System.err.println("Warning: Work queue encountered an exception while running.");
+					log.catching(Level.DEBUG, e);
+				}
+				
+				if (metrics != null) {
+					if (task instanceof TimedTask) metrics.runTime.record(System.nanoTime() - start);
+					completed++;
+				}
+				
+				searching.incrementAndGet();
+				decrementPending();
 			}
+			stopped = System.nanoTime();
+			if (idleSince != 0) idleTime += stopped - idleSince;
+			log.debug("Worker detected shutdown...");
+			log.debug("Worker thread terminating...");
 		}
 	}
 }